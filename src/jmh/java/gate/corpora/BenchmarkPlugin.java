@@ -0,0 +1,26 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora;
+
+import gate.test.GATEPluginTestCase;
+
+/**
+ * Initialises GATE and registers this plugin for the benchmarks, the same
+ * way the unit tests do.
+ */
+public final class BenchmarkPlugin extends GATEPluginTestCase {
+
+  private BenchmarkPlugin() {
+  }
+
+  public static synchronized void load() throws Exception {
+    loadPlugin();
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora;
+
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.corpora.json.BenchmarkTweets;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * GATEJSONFormat.unpackMarkup end to end: creating a GATE document from
+ * JSON text, with the markup unpacked (unpack) or not (createOnly, the
+ * baseline to subtract).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GATEJSONFormatBenchmark {
+
+  @Param({"1", "100"})
+  public int tweets;
+
+  @Param({"plain", "emoji"})
+  public String text;
+
+  @Param({"text/json", "text/json;canonicalise=short;lazy-entity-features=true"})
+  public String mimeType;
+
+  private String content;
+
+  @Setup
+  public void setUp() throws Exception {
+    BenchmarkPlugin.load();
+    content = new String(BenchmarkTweets.tweets(text, tweets, false),
+        StandardCharsets.UTF_8);
+  }
+
+  private Document create(boolean unpack) throws Exception {
+    FeatureMap params = Factory.newFeatureMap();
+    params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME, content);
+    params.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, mimeType);
+    params.put(Document.DOCUMENT_MARKUP_AWARE_PARAMETER_NAME, unpack);
+    Document doc = (Document)Factory.createResource(
+        DocumentImpl.class.getName(), params, null, null);
+    Factory.deleteResource(doc);
+    return doc;
+  }
+
+  @Benchmark
+  public Document createOnly() throws Exception {
+    return create(false);
+  }
+
+  @Benchmark
+  public Document unpack() throws Exception {
+    return create(true);
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.export;
+
+import gate.Corpus;
+import gate.FeatureMap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Exporting a transient corpus of 200 documents of 20 tweets each, with
+ * one or more export threads, plain or gzipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorpusExportBenchmark {
+
+  @Param({"1", "4"})
+  public int exportThreads;
+
+  @Param({"false", "true"})
+  public boolean gzip;
+
+  private Corpus corpus;
+
+  private GATEJsonExporter exporter;
+
+  private FeatureMap options;
+
+  @Setup
+  public void setUp() throws Exception {
+    corpus = ExportFixtures.corpus("emoji", 200, 20);
+    exporter = new GATEJsonExporter();
+    options = ExportFixtures.options(false);
+    options.put("exportThreads", exportThreads);
+    options.put("gzipOutput", gzip);
+    options.put("compressionThreads", exportThreads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    ExportFixtures.delete(corpus);
+  }
+
+  @Benchmark
+  public void exportCorpus() throws Exception {
+    exporter.export(corpus, ExportFixtures.NULL, options);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.export;
+
+import gate.Annotation;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.corpora.DocumentJsonUtils;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Exporting a single document: through GATEJsonExporter with whole
+ * document and document annotation output, and writing the whole document
+ * directly with JsonDocumentWriter compared with the databinding based
+ * DocumentJsonUtils in GATE core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentExportBenchmark {
+
+  @Param({"1", "100"})
+  public int tweets;
+
+  @Param({"plain", "emoji"})
+  public String text;
+
+  private Document doc;
+
+  private Map<String, Collection<Annotation>> annotations;
+
+  private GATEJsonExporter exporter;
+
+  private FeatureMap wholeDocument;
+
+  private FeatureMap documentAnnotations;
+
+  private JsonDocumentWriter writer;
+
+  @Setup
+  public void setUp() throws Exception {
+    doc = ExportFixtures.document(text, tweets);
+    annotations = ExportFixtures.annotations(doc);
+    exporter = new GATEJsonExporter();
+    wholeDocument = ExportFixtures.options(false);
+    documentAnnotations = ExportFixtures.options(true);
+    writer = ExportFixtures.writer();
+  }
+
+  @TearDown
+  public void tearDown() {
+    Factory.deleteResource(doc);
+  }
+
+  @Benchmark
+  public void exportWholeDocument() throws Exception {
+    exporter.export(doc, ExportFixtures.NULL, wholeDocument);
+  }
+
+  @Benchmark
+  public void exportDocumentAnnotations() throws Exception {
+    exporter.export(doc, ExportFixtures.NULL, documentAnnotations);
+  }
+
+  @Benchmark
+  public void jsonDocumentWriter() throws Exception {
+    try(JsonGenerator json = GATEJsonExporter.MAPPER.getFactory()
+        .createGenerator(ExportFixtures.NULL, JsonEncoding.UTF8)) {
+      writer.writeDocument(doc, 0, doc.getContent().size(), annotations, null, json);
+    }
+  }
+
+  @Benchmark
+  public void documentJsonUtils() throws Exception {
+    try(JsonGenerator json = GATEJsonExporter.MAPPER.getFactory()
+        .createGenerator(ExportFixtures.NULL, JsonEncoding.UTF8)) {
+      DocumentJsonUtils.writeDocument(doc, 0L, doc.getContent().size(),
+          annotations, null, json);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.export;
+
+import gate.Annotation;
+import gate.Corpus;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.GateConstants;
+import gate.Utils;
+import gate.corpora.BenchmarkPlugin;
+import gate.corpora.json.BenchmarkTweets;
+import gate.corpora.json.OffsetUnit;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Documents and options shared by the export benchmarks.
+ */
+final class ExportFixtures {
+
+  static final String[] ENTITY_TYPES = {"hashtags", "user_mentions", "urls"};
+
+  /**
+   * Discards everything, so only the cost of producing the output is
+   * measured.
+   */
+  static final OutputStream NULL = new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  };
+
+  private ExportFixtures() {
+  }
+
+  static Document document(String text, int tweets) throws Exception {
+    BenchmarkPlugin.load();
+    FeatureMap params = Factory.newFeatureMap();
+    params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME, new String(
+        BenchmarkTweets.tweets(text, tweets, false), StandardCharsets.UTF_8));
+    params.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, "text/json");
+    return (Document)Factory.createResource("gate.corpora.DocumentImpl", params);
+  }
+
+  static Corpus corpus(String text, int documents, int tweets) throws Exception {
+    Corpus corpus = Factory.newCorpus("export benchmark");
+    for(int i = 0; i < documents; i++) {
+      corpus.add(document(text, tweets));
+    }
+    return corpus;
+  }
+
+  static void delete(Corpus corpus) {
+    for(Document doc : corpus) {
+      Factory.deleteResource(doc);
+    }
+    Factory.deleteResource(corpus);
+  }
+
+  static FeatureMap options(boolean documentAnnotations) {
+    FeatureMap options = Factory.newFeatureMap();
+    Collection<String> types = new LinkedHashSet<String>();
+    for(String type : ENTITY_TYPES) {
+      types.add(GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME + ":" + type);
+    }
+    options.put("annotationTypes", types);
+    if(documentAnnotations) {
+      options.put("documentAnnotationASName", GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME);
+      options.put("documentAnnotationType", "Object");
+    }
+    return options;
+  }
+
+  /**
+   * The entity annotations of a whole document, as passed to the document
+   * writers.
+   */
+  static Map<String, Collection<Annotation>> annotations(Document doc) {
+    Map<String, Collection<Annotation>> annotations =
+        new LinkedHashMap<String, Collection<Annotation>>();
+    for(String type : Arrays.asList(ENTITY_TYPES)) {
+      annotations.put(type, Utils.inDocumentOrder(doc.getAnnotations(
+          GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME).get(type)));
+    }
+    return annotations;
+  }
+
+  static JsonDocumentWriter writer() {
+    return new JsonDocumentWriter(OffsetUnit.CODEPOINTS);
+  }
+}
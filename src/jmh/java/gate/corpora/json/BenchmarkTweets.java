@@ -0,0 +1,90 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Tweets for the benchmarks, from a {@link TweetGenerator} set up for one
+ * of a few kinds of text: "plain" has no HTML escapes or supplementary
+ * characters, "escaped" has plenty of escapes and "emoji" plenty of
+ * supplementary characters.
+ */
+public final class BenchmarkTweets {
+
+  public static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final String[] WORDS = {"the", "quick", "brown", "fox",
+      "jumps", "over", "lazy", "dog"};
+
+  private BenchmarkTweets() {
+  }
+
+  public static TweetGenerator generator(String kind) {
+    TweetGenerator generator = new TweetGenerator(41).escapeRate(0)
+        .supplementaryRate(0);
+    if("escaped".equals(kind)) generator.escapeRate(0.15);
+    if("emoji".equals(kind)) generator.supplementaryRate(0.3);
+    return generator;
+  }
+
+  /**
+   * A tweet with the given kind of text.
+   */
+  public static ObjectNode tweet(String kind, long id) {
+    return generator(kind).tweet(id);
+  }
+
+  /**
+   * The given number of tweets as JSON lines, or as one JSON array.
+   */
+  public static byte[] tweets(String kind, int count, boolean asArray) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      generator(kind).write(out, count, asArray, false);
+    } catch(IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  public static byte[] gzip(byte[] bytes) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try(GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(bytes);
+    } catch(IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * An object nested to the given depth, each level holding a few scalar
+   * properties, a short array and the next level.
+   */
+  public static ObjectNode nested(int depth) {
+    ObjectNode root = MAPPER.createObjectNode();
+    ObjectNode current = root;
+    for(int i = 0; i < depth; i++) {
+      current.put("id", i);
+      current.put("name", WORDS[i % WORDS.length]);
+      current.put("flag", i % 2 == 0);
+      current.putArray("values").add(i).add(i * 0.5).add(WORDS[(i + 1) % WORDS.length]);
+      current = current.putObject("child");
+    }
+    return root;
+  }
+}
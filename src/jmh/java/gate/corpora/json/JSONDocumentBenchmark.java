@@ -0,0 +1,71 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Building a JSONDocument from an already parsed tweet, with and without
+ * its entities, for each kind of text; without entities this is mostly
+ * the cost of unescaping the text.  The constructor consumes the text
+ * field, so each call works on a fresh copy of the tweet; copyOnly
+ * measures that copy on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONDocumentBenchmark {
+
+  @Param({"plain", "escaped", "emoji"})
+  public String text;
+
+  @Param({"false", "true"})
+  public boolean entities;
+
+  @Param({"codepoints", "utf16"})
+  public String offsetUnits;
+
+  private ObjectNode tweet;
+
+  private OffsetUnit units;
+
+  @Setup
+  public void setUp() {
+    tweet = BenchmarkTweets.tweet(text, 1);
+    units = OffsetUnit.parse(offsetUnits);
+  }
+
+  @Benchmark
+  public ObjectNode copyOnly() {
+    return tweet.deepCopy();
+  }
+
+  @Benchmark
+  public JSONDocument construct() {
+    return new JSONDocument(tweet.deepCopy(), "text", entities, null, false, units);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Converting parsed JSON into feature values with JSONUtils.process, for a
+ * whole tweet and for objects nested to various depths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONUtilsBenchmark {
+
+  @Param({"4", "16", "64"})
+  public int depth;
+
+  private JsonNode tweet;
+
+  private JsonNode nested;
+
+  private StringCanonicaliser canonicaliser;
+
+  @Setup
+  public void setUp() {
+    tweet = BenchmarkTweets.tweet("plain", 1);
+    nested = BenchmarkTweets.nested(depth);
+    canonicaliser = new StringCanonicaliser(StringCanonicaliser.Policy.SHORT);
+  }
+
+  @Benchmark
+  public Object processTweet() {
+    return JSONUtils.process(tweet);
+  }
+
+  @Benchmark
+  public Object processTweetCanonicalised() {
+    return JSONUtils.process(tweet, canonicaliser);
+  }
+
+  @Benchmark
+  public Object processNested() {
+    return JSONUtils.process(nested);
+  }
+}
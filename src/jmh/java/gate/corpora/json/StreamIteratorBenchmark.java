@@ -0,0 +1,76 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of JSONDocumentStreamIterator over a batch of tweets, as JSON
+ * lines or one array, plain or gzipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamIteratorBenchmark {
+
+  private static final int TWEETS = 1000;
+
+  @Param({"jsonl", "array"})
+  public String layout;
+
+  @Param({"false", "true"})
+  public boolean gzip;
+
+  @Param({"plain", "emoji"})
+  public String text;
+
+  private byte[] input;
+
+  @Setup
+  public void setUp() {
+    input = BenchmarkTweets.tweets(text, TWEETS, "array".equals(layout));
+    if(gzip) input = BenchmarkTweets.gzip(input);
+  }
+
+  /**
+   * Reads all the tweets; the score is batches per second, so multiply by
+   * 1000 for tweets per second.
+   */
+  @Benchmark
+  public void readAll(Blackhole bh) throws IOException {
+    JSONDocumentStreamIterator it = new JSONDocumentStreamIterator(
+        new ByteArrayInputStream(input), "text", gzip);
+    try {
+      while(it.hasNext()) {
+        bh.consume(it.next());
+      }
+    } finally {
+      it.close();
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+import javax.activation.MimeTypeParseException;
+
+import gate.Resource;
+import gate.corpora.json.BinaryJson;
+import gate.corpora.json.JSONDocumentStreamIterator;
+import gate.corpora.json.JsonMetrics;
+import gate.creole.ResourceInstantiationException;
+import gate.creole.metadata.AutoInstance;
+import gate.creole.metadata.CreoleResource;
+import gate.util.DocumentFormatException;
+
+/**
+ * Document format for JSON encoded as Smile or CBOR rather than text,
+ * such as the output of {@link gate.corpora.export.GATEBinaryJsonExporter}.
+ * The objects are turned into a document exactly as {@link GATEJSONFormat}
+ * would turn their JSON text into one, and take the same mime type
+ * parameters.
+ *
+ * GATE can only hand a format the document content decoded as text, which
+ * is no use for binary data, so the objects are read from the document's
+ * source URL instead, gzipped or not, and the decoded content is dropped
+ * unread.  A document created from a string rather than a URL cannot be
+ * read by this format.  The encoding is recognised from the first bytes,
+ * or failing that from the mime type.
+ */
+@CreoleResource(name = "GATE Binary JSON Document Format", isPrivate = true,
+    autoinstances = {@AutoInstance(hidden = true)},
+    comment = "Format parser for Smile and CBOR encoded JSON files")
+public class GATEBinaryJSONFormat extends GATEJSONFormat {
+
+  private static final long serialVersionUID = -3034165474331867027L;
+
+  @Override
+  public Resource init() throws ResourceInstantiationException {
+    MimeType smile = new MimeType("application", "x-jackson-smile");
+    register(smile, "sml", "smile");
+    register(new MimeType("application", "cbor"), "cbor");
+    setMimeType(smile);
+    JsonMetrics.register();
+    return this;
+  }
+
+  @Override
+  public void unpackMarkup(gate.Document doc) throws DocumentFormatException {
+    if(doc != null && doc.getSourceUrl() == null) {
+      throw new DocumentFormatException(
+          "Binary JSON can only be read from a source URL, not from a string");
+    }
+    super.unpackMarkup(doc);
+  }
+
+  @Override
+  protected JSONDocumentStreamIterator openSource(gate.Document doc,
+      String textPath) throws IOException {
+    URL source = doc.getSourceUrl();
+    // the binary data decoded as text is of no use, so let it go rather
+    // than keep it alongside the parsed objects
+    doc.setContent(new DocumentContentImpl(""));
+    InputStream in = new BufferedInputStream(source.openStream(), 65536);
+    try {
+      byte[] prefix = new byte[3];
+      in.mark(prefix.length);
+      int length = in.read(prefix);
+      in.reset();
+      if(length >= 2 && (prefix[0] & 0xff) == 0x1f && (prefix[1] & 0xff) == 0x8b) {
+        in = new BufferedInputStream(new GZIPInputStream(in, 65536), 65536);
+        in.mark(prefix.length);
+        length = in.read(prefix);
+        in.reset();
+      }
+      String encoding = BinaryJson.detect(prefix, length);
+      if(encoding == null) encoding = encodingFromMimeType(doc);
+      return new JSONDocumentStreamIterator(in, textPath, true,
+          BinaryJson.mapper(encoding));
+    } catch(IOException | RuntimeException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  private static String encodingFromMimeType(gate.Document doc) {
+    // the mime type given when the document was created, or else the one
+    // GATE chose for it from its URL
+    Object type = doc instanceof DocumentImpl ? ((DocumentImpl)doc).getMimeType() : null;
+    if(type == null) type = doc.getFeatures().get("MimeType");
+    if(type != null) {
+      try {
+        MimeType mimeType = new MimeType(type.toString());
+        String encoding = BinaryJson.forName(mimeType.getSubtype());
+        if(encoding != null) return encoding;
+      } catch(MimeTypeParseException e) {
+        // fall through to the default
+      }
+    }
+    return BinaryJson.SMILE;
+  }
+}
@@ -10,13 +10,15 @@
 package gate.corpora;
 
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.activation.MimeTypeParseException;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
 
 import gate.DocumentContent;
 import gate.GateConstants;
@@ -25,6 +27,11 @@ import gate.corpora.json.PreAnnotation;
 import gate.corpora.json.JSONUtils;
 import gate.corpora.json.JSONDocument;
 import gate.corpora.json.JSONDocumentStreamIterator;
+import gate.corpora.json.JsonEvents;
+import gate.corpora.json.JsonMetrics;
+import gate.corpora.json.OffsetUnit;
+import gate.corpora.json.ScratchBuffers;
+import gate.corpora.json.StringCanonicaliser;
 import gate.creole.ResourceInstantiationException;
 import gate.creole.metadata.AutoInstance;
 import gate.creole.metadata.CreoleResource;
@@ -37,6 +44,13 @@ import gate.util.Out;
  *  object {...} or a list [{document...}, {document...}, ...].
  *  
  *  This format produces one GATE document from one JSON file.
+ *
+ *  A single (auto) instance of this format is shared by every document
+ *  loaded in the JVM, so unpackMarkup is safe to call from several threads
+ *  at once, as long as each thread works on its own GATE document.  It
+ *  keeps no per-document state in the instance; the builders and tables
+ *  used while parsing come from {@link ScratchBuffers} and are reused from
+ *  one document to the next on the same thread.
  */
 @CreoleResource(name = "GATE JSON Document Format", isPrivate = true,
     autoinstances = {@AutoInstance(hidden = true)},
@@ -46,7 +60,33 @@ import gate.util.Out;
 public class GATEJSONFormat extends TextualDocumentFormat {
   private static final long serialVersionUID = 6878020036304333918L;
 
+  private static final Logger logger = Logger.getLogger(GATEJSONFormat.class);
+
+  /**
+   * Canonicalisers shared by all documents parsed with the same
+   * "canonicalise" mime type parameter, so repeated strings are shared
+   * across the whole corpus rather than just within one document.
+   */
+  private static final Map<StringCanonicaliser.Policy, StringCanonicaliser> CANONICALISERS =
+      new ConcurrentHashMap<StringCanonicaliser.Policy, StringCanonicaliser>();
+
+  /**
+   * Get the canonicaliser shared by all documents parsed with the given
+   * policy, creating it if necessary.  Mainly useful to inspect the hit and
+   * miss counts when tuning the policy.
+   */
+  public static StringCanonicaliser getCanonicaliser(StringCanonicaliser.Policy policy) {
+    return CANONICALISERS.computeIfAbsent(policy, StringCanonicaliser::new);
+  }
   
+  /**
+   * Mime types and file suffixes registered by this instance, to be
+   * removed again on cleanup.
+   */
+  private final List<String> registeredMimeTypes = new ArrayList<String>();
+
+  private final List<String> registeredSuffixes = new ArrayList<String>();
+
   /** Default construction */
   public GATEJSONFormat() { super();}
 
@@ -56,28 +96,55 @@ public class GATEJSONFormat extends TextualDocumentFormat {
     // There is an application/json mime type, but I don't think
     // we want everything to be handled this way?
     MimeType mime = new MimeType("text","json");
-    // Register the class handler for this MIME-type
-    mimeString2ClassHandlerMap.put(mime.getType()+ "/" + mime.getSubtype(), this);
-    // Register the mime type with string
-    mimeString2mimeTypeMap.put(mime.getType() + "/" + mime.getSubtype(), mime);
-    // Register file suffixes for this mime type
-    suffixes2mimeTypeMap.put("json", mime);
-    // Register magic numbers for this mime type
-    //magic2mimeTypeMap.put("Subject:",mime);
+    register(mime, "json");
     // Set the mimeType for this language resource
     setMimeType(mime);
+    JsonMetrics.register();
     return this;
   }
+
+  /**
+   * Register this format as the handler for a mime type and the given file
+   * suffixes.
+   */
+  protected void register(MimeType mime, String... suffixes) {
+    String name = mime.getType() + "/" + mime.getSubtype();
+    // Register the class handler for this MIME-type
+    mimeString2ClassHandlerMap.put(name, this);
+    // Register the mime type with string
+    mimeString2mimeTypeMap.put(name, mime);
+    registeredMimeTypes.add(name);
+    // Register file suffixes for this mime type
+    for(String suffix : suffixes) {
+      suffixes2mimeTypeMap.put(suffix, mime);
+      registeredSuffixes.add(suffix);
+    }
+  }
+
   
   @Override
   public void cleanup() {
     super.cleanup();
     
-    MimeType mime = getMimeType();
-    
-    mimeString2ClassHandlerMap.remove(mime.getType()+ "/" + mime.getSubtype());
-    mimeString2mimeTypeMap.remove(mime.getType() + "/" + mime.getSubtype());
-    suffixes2mimeTypeMap.remove("json");
+    for(String name : registeredMimeTypes) {
+      mimeString2ClassHandlerMap.remove(name);
+      mimeString2mimeTypeMap.remove(name);
+    }
+    for(String suffix : registeredSuffixes) {
+      suffixes2mimeTypeMap.remove(suffix);
+    }
+    JsonMetrics.unregister();
+  }
+
+  /**
+   * Open the stream of JSON objects that make up the document.  This
+   * format parses the document content; formats for other encodings of the
+   * same objects override this, and need not look at the content at all.
+   */
+  protected JSONDocumentStreamIterator openSource(gate.Document doc,
+      String textPath) throws IOException {
+    return new JSONDocumentStreamIterator(
+        StringUtils.trimToEmpty(doc.getContent().toString()), textPath);
   }
 
   @Override
@@ -87,56 +154,115 @@ public class GATEJSONFormat extends TextualDocumentFormat {
     }
     
     String textPath = JSONUtils.DEFAULT_TEXT_ATTRIBUTE;
+    StringCanonicaliser canonicaliser = null;
+    boolean lazyEntityFeatures = false;
+    OffsetUnit offsetUnits = OffsetUnit.CODEPOINTS;
     
     if (doc instanceof DocumentImpl) {
-      try {
-        String feature = ((DocumentImpl)doc).getMimeType();
-        if (feature != null) {
-	      MimeType mimeType = new MimeType(feature);
-	      String paramValue = mimeType.getParameterValue("text-path");
-
-          if (paramValue != null && !paramValue.trim().isEmpty())
-            textPath = paramValue;
+      String feature = ((DocumentImpl)doc).getMimeType();
+      MimeType mimeType = null;
+      if (feature != null) {
+        try {
+          mimeType = new MimeType(feature);
+        } catch(MimeTypeParseException e) {
+          badParameter(doc, "Invalid mime type " + feature, e);
+        }
+      }
+      if (mimeType != null) {
+        // each parameter is read on its own, so a bad value for one does
+        // not leave the others at their defaults
+        String paramValue = mimeType.getParameterValue("text-path");
+        if (paramValue != null && !paramValue.trim().isEmpty())
+          textPath = paramValue;
+
+        paramValue = mimeType.getParameterValue("canonicalise");
+        try {
+          StringCanonicaliser.Policy policy =
+              StringCanonicaliser.parsePolicy(paramValue);
+          if (policy != null)
+            canonicaliser = getCanonicaliser(policy);
+        } catch(IllegalArgumentException e) {
+          badParameter(doc, "Invalid canonicalise parameter " + paramValue, e);
+        }
+
+        lazyEntityFeatures =
+            Boolean.parseBoolean(mimeType.getParameterValue("lazy-entity-features"));
+
+        paramValue = mimeType.getParameterValue("offset-units");
+        try {
+          offsetUnits = OffsetUnit.parse(paramValue);
+        } catch(IllegalArgumentException e) {
+          badParameter(doc, "Invalid offset-units parameter " + paramValue, e);
         }
-       
-      } catch(MimeTypeParseException | RuntimeException e) {
-        e.printStackTrace();
       }
     }
     
     setNewLineProperty(doc);
-    String jsonString = StringUtils.trimToEmpty(doc.getContent().toString());
+    ScratchBuffers scratch = ScratchBuffers.get();
     try {
+      Object event = JsonEvents.beginParse();
+      long parseNanos = 0;
+      long concatenateNanos = 0;
+      long startTime = System.nanoTime();
       // Parse the String
-      Iterator<JSONDocument> tweetSource = new JSONDocumentStreamIterator(jsonString, textPath);
-      Map<JSONDocument, Long> tweetStarts = new LinkedHashMap<JSONDocument, Long>();
+      List<JSONDocument> tweets = scratch.documents();
+      long[] tweetStarts = scratch.starts(16);
       
       // Put them all together to make the unpacked document content
-      StringBuilder concatenation = new StringBuilder();
-      while(tweetSource.hasNext()) {
-        JSONDocument tweet = tweetSource.next();
-        if(tweet != null) {
-          // TweetStreamIterator can return null even when hasNext is true,
-          // for search result style JSON.  This is not a problem, just ignore
-          // and check hasNext again.
-          tweetStarts.put(tweet, (long) concatenation.length());
-          concatenation.append(tweet.getString()).append("\n\n");
+      StringBuilder concatenation = scratch.contentBuilder();
+      long characters;
+      long bytes;
+      try(JSONDocumentStreamIterator tweetSource = openSource(doc, textPath)) {
+        tweetSource.setCanonicaliser(canonicaliser);
+        tweetSource.setLazyEntityFeatures(lazyEntityFeatures);
+        tweetSource.setOffsetUnits(offsetUnits);
+        while(tweetSource.hasNext()) {
+          JSONDocument tweet = tweetSource.next();
+          long now = System.nanoTime();
+          parseNanos += now - startTime;
+          startTime = now;
+          if(tweet != null) {
+            // TweetStreamIterator can return null even when hasNext is true,
+            // for search result style JSON.  This is not a problem, just ignore
+            // and check hasNext again.
+            tweetStarts = scratch.starts(tweets.size() + 1);
+            tweetStarts[tweets.size()] = concatenation.length();
+            tweets.add(tweet);
+            concatenation.append(tweet.getString()).append("\n\n");
+          }
+          now = System.nanoTime();
+          concatenateNanos += now - startTime;
+          startTime = now;
         }
+        characters = tweetSource.getCharactersRead();
+        bytes = tweetSource.getBytesRead();
       }
+      parseNanos += System.nanoTime() - startTime;
+      startTime = System.nanoTime();
 
       // Set new document content 
       DocumentContent newContent = new DocumentContentImpl(concatenation.toString());
       doc.edit(0L, doc.getContent().size(), newContent);
+      concatenateNanos += System.nanoTime() - startTime;
+      startTime = System.nanoTime();
 
       // Create Original markups annotations for each tweet
-      for (Map.Entry<JSONDocument, Long> entry: tweetStarts.entrySet()) {
-        for (PreAnnotation preAnn : entry.getKey().getAnnotations()) {
-          preAnn.toAnnotation(doc, entry.getValue());
+      long annotations = 0;
+      for (int i = 0; i < tweets.size(); i++) {
+        for (PreAnnotation preAnn : tweets.get(i).getAnnotations()) {
+          preAnn.toAnnotation(doc, tweetStarts[i]);
+          annotations++;
         }
       }
+      long annotateNanos = System.nanoTime() - startTime;
+      JsonMetrics.get().documentParsed(characters, bytes, tweets.size(),
+          annotations, parseNanos, concatenateNanos, annotateNanos);
+      JsonEvents.endParse(event, doc.getName(), characters,
+          tweets.size(), annotations, parseNanos, concatenateNanos, annotateNanos);
     }
     catch (InvalidOffsetException | IOException | RuntimeException e) {
       doc.getFeatures().put("parsingError", Boolean.TRUE);
+      JsonMetrics.get().parseError();
 
       Boolean bThrow =
               (Boolean)doc.getFeatures().get(
@@ -153,6 +279,24 @@ public class GATEJSONFormat extends TextualDocumentFormat {
         e.printStackTrace(Out.getPrintWriter());
       } // if
     }
+    finally {
+      scratch.release();
+    }
+  }
+
+  /**
+   * Report a mime type parameter that cannot be used, as an exception if
+   * the document asks for format errors to be thrown, otherwise as a
+   * warning (leaving the parameter at its default).
+   */
+  private static void badParameter(gate.Document doc, String message,
+      Exception e) throws DocumentFormatException {
+    Boolean bThrow = (Boolean)doc.getFeatures().get(
+        GateConstants.THROWEX_FORMAT_PROPERTY_NAME);
+    if(bThrow != null && bThrow.booleanValue()) {
+      throw new DocumentFormatException(message, e);
+    }
+    logger.warn(message + " in " + doc.getName() + ", using the default");
   }
 
 }
@@ -0,0 +1,123 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+
+package gate.corpora.export;
+
+import gate.Corpus;
+import gate.Document;
+import gate.Factory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * Hands out the documents of a corpus in order for export, and unloads
+ * those that were not loaded to begin with once the exporter has released
+ * them.
+ */
+abstract class CorpusDocuments implements Closeable {
+
+  static final IntPredicate SKIP_NONE = index -> false;
+
+  /**
+   * Open the documents of a corpus, loading them on the calling thread if
+   * prefetch is zero, or up to prefetch documents ahead on a background
+   * thread otherwise.
+   */
+  static CorpusDocuments open(Corpus corpus, int prefetch) {
+    return open(corpus, prefetch, SKIP_NONE);
+  }
+
+  /**
+   * Open the documents of a corpus, leaving out (and never loading) those
+   * whose index passes the skip test.  The test is made on whichever thread
+   * loads the documents, just before the document would be loaded.
+   */
+  static CorpusDocuments open(Corpus corpus, int prefetch, IntPredicate skip) {
+    if(prefetch > 0) {
+      return new PrefetchingCorpusDocuments(corpus, prefetch, skip);
+    }
+    return new Direct(corpus, skip);
+  }
+
+  /**
+   * The next document, or null when there are no more.
+   */
+  public abstract Document next() throws IOException;
+
+  /**
+   * Tell this source that the exporter is finished with a document it
+   * handed out.
+   */
+  public abstract void release(Document doc);
+
+  /**
+   * Release any documents still held.
+   */
+  @Override
+  public abstract void close() throws IOException;
+
+  static Set<Document> identitySet() {
+    return Collections.newSetFromMap(new IdentityHashMap<Document, Boolean>());
+  }
+
+  static void unload(Corpus corpus, Document doc) {
+    corpus.unloadDocument(doc);
+    Factory.deleteResource(doc);
+  }
+
+  /**
+   * Loads each document on the calling thread as it is asked for.
+   */
+  private static class Direct extends CorpusDocuments {
+    private final Corpus corpus;
+
+    private final IntPredicate skip;
+
+    private final Set<Document> toUnload = identitySet();
+
+    private int currentDocIndex = 0;
+
+    Direct(Corpus corpus, IntPredicate skip) {
+      this.corpus = corpus;
+      this.skip = skip;
+    }
+
+    @Override
+    public Document next() {
+      while(currentDocIndex < corpus.size() && skip.test(currentDocIndex)) {
+        currentDocIndex++;
+      }
+      if(currentDocIndex >= corpus.size()) return null;
+      boolean docWasLoaded = corpus.isDocumentLoaded(currentDocIndex);
+      Document currentDoc = corpus.get(currentDocIndex);
+      if(!docWasLoaded) toUnload.add(currentDoc);
+      currentDocIndex++;
+      return currentDoc;
+    }
+
+    @Override
+    public void release(Document doc) {
+      if(toUnload.remove(doc)) unload(corpus, doc);
+    }
+
+    @Override
+    public void close() {
+      for(Document doc : toUnload) {
+        unload(corpus, doc);
+      }
+      toUnload.clear();
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+
+package gate.corpora.export;
+
+import gate.Document;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Receives the serialised JSON of each exported document, in corpus order.
+ */
+interface DocumentSink {
+
+  /**
+   * Add the JSON for one document, which may be several JSON values
+   * separated as they would be in the output, or nothing at all.
+   */
+  void write(Document doc, byte[] json) throws IOException;
+
+  /**
+   * Called once after the last document has been written.
+   */
+  void finish() throws IOException;
+
+  /**
+   * Writes the documents to a single stream, either as one JSON array or
+   * as values separated by newlines, exactly as a JsonGenerator set up by
+   * {@link GATEJsonExporter#openGenerator} would.
+   */
+  static class Stream implements DocumentSink {
+    private final OutputStream out;
+
+    private final boolean asArray;
+
+    private boolean started = false;
+
+    private boolean empty = true;
+
+    Stream(OutputStream out, boolean asArray) {
+      this.out = out;
+      this.asArray = asArray;
+    }
+
+    private void start() throws IOException {
+      if(!started) {
+        if(asArray) out.write('[');
+        started = true;
+      }
+    }
+
+    @Override
+    public void write(Document doc, byte[] json) throws IOException {
+      start();
+      if(json.length > 0) {
+        if(!empty) out.write(asArray ? ',' : '\n');
+        out.write(json);
+        empty = false;
+      }
+    }
+
+    @Override
+    public void finish() throws IOException {
+      start();
+      if(asArray) out.write(']');
+      out.flush();
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+
+package gate.corpora.export;
+
+import gate.FeatureMap;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which features are written on export, from the
+ * includeFeatures, excludeFeatures and dropEmptyValues options.
+ *
+ * Entries in the include and exclude lists are either "type/feature",
+ * naming a feature of the annotations exported under the given entity
+ * name ("*" for every type), or a plain feature name, naming a feature of
+ * the document (or of the document annotation).  If any features are
+ * included for a type, or for the document, only those features are
+ * written for it; excluded features are never written.
+ */
+class FeatureFilter {
+
+  static final FeatureFilter NONE = new FeatureFilter(null, null, false);
+
+  private static final String DOCUMENT = "";
+
+  private static final String ANY_TYPE = "*";
+
+  /**
+   * Feature names to include, keyed by type, DOCUMENT or ANY_TYPE.
+   */
+  private final Map<String, Set<String>> includes;
+
+  private final Map<String, Set<String>> excludes;
+
+  private final boolean dropEmptyValues;
+
+  private final boolean filtering;
+
+  private FeatureFilter(Collection<?> include, Collection<?> exclude,
+      boolean dropEmptyValues) {
+    this.includes = parse(include);
+    this.excludes = parse(exclude);
+    this.dropEmptyValues = dropEmptyValues;
+    this.filtering = dropEmptyValues || !includes.isEmpty() || !excludes.isEmpty();
+  }
+
+  static FeatureFilter fromOptions(FeatureMap options) {
+    Collection<?> include = (Collection<?>)options.get("includeFeatures");
+    Collection<?> exclude = (Collection<?>)options.get("excludeFeatures");
+    boolean dropEmpty = GATEJsonExporter.booleanOption(options, "dropEmptyValues");
+    if(!dropEmpty && (include == null || include.isEmpty())
+        && (exclude == null || exclude.isEmpty())) {
+      return NONE;
+    }
+    return new FeatureFilter(include, exclude, dropEmpty);
+  }
+
+  private static Map<String, Set<String>> parse(Collection<?> entries) {
+    Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+    if(entries != null) {
+      for(Object entry : entries) {
+        String str = String.valueOf(entry);
+        int slash = str.indexOf('/');
+        String type = slash < 0 ? DOCUMENT : str.substring(0, slash);
+        result.computeIfAbsent(type, t -> new HashSet<String>())
+            .add(str.substring(slash + 1));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Does this filter ever leave anything out?
+   */
+  boolean isFiltering() {
+    return filtering;
+  }
+
+  /**
+   * Should the given feature of the document be written?
+   */
+  boolean keepDocumentFeature(Object name, Object value) {
+    return keep(includes.get(DOCUMENT), null, excludes.get(DOCUMENT), null,
+        name, value);
+  }
+
+  /**
+   * Should the given feature of an annotation exported under the given
+   * entity name be written?
+   */
+  boolean keepAnnotationFeature(String type, Object name, Object value) {
+    return keep(includes.get(type), includes.get(ANY_TYPE), excludes.get(type),
+        excludes.get(ANY_TYPE), name, value);
+  }
+
+  private boolean keep(Set<String> include, Set<String> includeAny,
+      Set<String> exclude, Set<String> excludeAny, Object name, Object value) {
+    if(!filtering) return true;
+    if(dropEmptyValues && isEmpty(value)) return false;
+    String key = String.valueOf(name);
+    if((include != null || includeAny != null)
+        && !(include != null && include.contains(key))
+        && !(includeAny != null && includeAny.contains(key))) {
+      return false;
+    }
+    return !(exclude != null && exclude.contains(key))
+        && !(excludeAny != null && excludeAny.contains(key));
+  }
+
+  private static boolean isEmpty(Object value) {
+    return value == null
+        || (value instanceof CharSequence && ((CharSequence)value).length() == 0)
+        || (value instanceof Collection && ((Collection<?>)value).isEmpty())
+        || (value instanceof Map && ((Map<?, ?>)value).isEmpty());
+  }
+}
@@ -15,11 +15,12 @@ import gate.AnnotationSet;
 import gate.Corpus;
 import gate.CorpusExporter;
 import gate.Document;
-import gate.Factory;
 import gate.FeatureMap;
 import gate.GateConstants;
 import gate.Utils;
-import gate.corpora.DocumentJsonUtils;
+import gate.corpora.json.JsonEvents;
+import gate.corpora.json.JsonMetrics;
+import gate.corpora.json.OffsetUnit;
 import gate.creole.metadata.AutoInstance;
 import gate.creole.metadata.CreoleParameter;
 import gate.creole.metadata.CreoleResource;
@@ -28,16 +29,23 @@ import gate.creole.metadata.RunTime;
 import gate.util.InvalidOffsetException;
 import gate.util.GateRuntimeException;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -50,6 +58,16 @@ public class GATEJsonExporter extends CorpusExporter {
   private static final long serialVersionUID = -8087536348560365618L;
 
   protected static final ObjectMapper MAPPER = new ObjectMapper();
+
+  static final long DEFAULT_MAX_BUFFERED_BYTES = 64L * 1024 * 1024;
+
+  static final int DEFAULT_OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Uncompressed size of each independently compressed block of parallel
+   * gzip output.
+   */
+  static final int GZIP_BLOCK_SIZE = 1024 * 1024;
   
   /**
    * No-op, exists only as a host for the parameter annotations.
@@ -114,41 +132,322 @@ public class GATEJsonExporter extends CorpusExporter {
   public void setDocumentAnnotationType(String type) {}
   public String getDocumentAnnotationType() { return null; }
 
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "CODEPOINTS", comment = "Units in which " +
+      "the \"indices\" of the exported entities are counted.  CODEPOINTS " +
+      "is compatible with Twitter, UTF16 matches GATE's own offsets (so " +
+      "needs no conversion), UTF8_BYTES counts bytes of the UTF-8 encoding.")
+  public void setOffsetUnits(OffsetUnit units) {}
+  public OffsetUnit getOffsetUnits() { return null; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "1", comment = "Number of threads to " +
+      "use when exporting a corpus.  With more than one, documents are " +
+      "serialised in parallel and written out in corpus order, so the " +
+      "output is the same as for a single thread.")
+  public void setExportThreads(Integer threads) {}
+  public Integer getExportThreads() { return null; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "67108864", comment = "When exporting a " +
+      "corpus with more than one thread, the number of bytes of serialised " +
+      "documents that may be held waiting for earlier documents to be " +
+      "written before no more work is handed out.")
+  public void setMaxBufferedBytes(Long bytes) {}
+  public Long getMaxBufferedBytes() { return null; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "0", comment = "When exporting a corpus, " +
+      "the number of documents to load ahead on a background thread while " +
+      "earlier ones are being written, so that loading documents from a " +
+      "datastore overlaps with generating the JSON.  0 loads each document " +
+      "only when it is needed.")
+  public void setPrefetchDocuments(Integer count) {}
+  public Integer getPrefetchDocuments() { return null; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "65536", comment = "Size in bytes of the " +
+      "buffer between the JSON generator and the output stream.")
+  public void setOutputBufferSize(Integer size) {}
+  public Integer getOutputBufferSize() { return null; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "false", comment = "Whether to gzip " +
+      "compress the output.")
+  public void setGzipOutput(Boolean gzip) {}
+  public Boolean getGzipOutput() { return Boolean.FALSE; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "1", comment = "Number of threads used " +
+      "to compress gzip output.  With more than one, the output is " +
+      "compressed in independent blocks and written as a multi-member " +
+      "gzip file, which standard gzip tools read as a single stream.")
+  public void setCompressionThreads(Integer threads) {}
+  public Integer getCompressionThreads() { return null; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "false", comment = "When exporting whole " +
+      "documents, walk each annotation set in offset order and write the " +
+      "annotations as they are found, instead of first making a sorted " +
+      "copy of every requested type.  Uses far less memory for documents " +
+      "with very many annotations, at the cost of one pass over the set " +
+      "per requested type.")
+  public void setStreamAnnotations(Boolean stream) {}
+  public Boolean getStreamAnnotations() { return Boolean.FALSE; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "false", comment = "Write the " +
+      "annotations of each type as parallel arrays of start offsets, end " +
+      "offsets and feature values instead of one object per annotation. " +
+      "Much smaller and quicker to load for types with many annotations, " +
+      "such as tokens, and read back by the JSON document format.  A " +
+      "column holds null where an annotation lacks the feature, so a " +
+      "feature whose value is null is dropped when read back.")
+  public void setColumnarAnnotations(Boolean columnar) {}
+  public Boolean getColumnarAnnotations() { return Boolean.FALSE; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "0", comment = "When exporting a corpus " +
+      "to a file, start a new file after this many documents.  The files " +
+      "are named after the chosen file with a five digit shard number, " +
+      "and a manifest listing them is written alongside.  0 means no " +
+      "limit.")
+  public void setShardDocuments(Long documents) {}
+  public Long getShardDocuments() { return null; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "0", comment = "When exporting a corpus " +
+      "to a file, start a new file once the current one holds this many " +
+      "bytes of (uncompressed) JSON.  Documents are never split between " +
+      "files.  0 means no limit.")
+  public void setShardBytes(Long bytes) {}
+  public Long getShardBytes() { return null; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(comment = "Features to write.  Entries of the form " +
+      "type/feature name a feature of the annotations exported under that " +
+      "name (* for all types), plain entries name document features.  " +
+      "Where any features are listed for a type, or for the document, " +
+      "only those are written.")
+  public void setIncludeFeatures(Set<String> features) {}
+  public Set<String> getIncludeFeatures() { return null; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(comment = "Features never to write, in the same form " +
+      "as includeFeatures.")
+  public void setExcludeFeatures(Set<String> features) {}
+  public Set<String> getExcludeFeatures() { return null; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "false", comment = "Leave out features " +
+      "whose value is null or an empty string, list or map.")
+  public void setDropEmptyValues(Boolean drop) {}
+  public Boolean getDropEmptyValues() { return Boolean.FALSE; }
+
+  /**
+   * No-op, exists only as a host for the parameter annotations.
+   */
+  @RunTime
+  @Optional
+  @CreoleParameter(comment = "Manifest file for incremental export.  If " +
+      "set, only documents that are new or have changed since the export " +
+      "that wrote the manifest are exported, and the manifest is updated, " +
+      "listing any documents that have since been removed from the " +
+      "corpus as deleted.  Unchanged documents in a serial datastore are " +
+      "not even loaded.")
+  public void setIncrementalManifest(URL manifest) {}
+  public URL getIncrementalManifest() { return null; }
+
   public GATEJsonExporter() {
     super("GATE JSON", "json","application/json");
   }
 
+  protected GATEJsonExporter(String fileType, String defaultExtension,
+      String mimeType) {
+    super(fileType, defaultExtension, mimeType);
+  }
+
+  /**
+   * The factory for the generators this exporter writes with: plain JSON
+   * text here, a binary encoding of the same model in subclasses.
+   */
+  protected JsonFactory getJsonFactory(FeatureMap options) throws IOException {
+    return MAPPER.getFactory();
+  }
+
   @Override
   public void export(Document doc, OutputStream out, FeatureMap options)
     throws IOException {
-    try(JsonGenerator generator = openGenerator(out, options)) {
+    try(OutputStream target = openOutput(out, options);
+        JsonGenerator generator = openGenerator(target, options)) {
       export(doc, generator, options);
     }
   }
   
+  /**
+   * Export a corpus to a file, or to a series of files if either of the
+   * shardDocuments or shardBytes options is set.
+   */
+  @Override
+  public void export(Corpus corpus, File file, FeatureMap options)
+    throws IOException {
+    long shardDocuments = longOption(options, "shardDocuments", 0);
+    long shardBytes = longOption(options, "shardBytes", 0);
+    if(shardDocuments <= 0 && shardBytes <= 0) {
+      super.export(corpus, file, options);
+      return;
+    }
+    ShardedDocumentSink sink =
+        new ShardedDocumentSink(this, options, file, shardDocuments, shardBytes);
+    IncrementalExport incremental = IncrementalExport.fromOptions(corpus, options);
+    boolean finished = false;
+    try(CorpusDocuments docs = openDocuments(corpus, incremental, options)) {
+      new ParallelCorpusExport(this, options,
+          Math.max(1, intOption(options, "exportThreads", 1)),
+          longOption(options, "maxBufferedBytes", DEFAULT_MAX_BUFFERED_BYTES))
+          .export(docs, incremental == null ? sink : incremental.wrap(sink));
+      finished = true;
+    } finally {
+      if(!finished) sink.abort();
+    }
+  }
+
   public void export(Corpus corpus, OutputStream out, FeatureMap options)
     throws IOException {
-    try(JsonGenerator generator = openGenerator(out, options)) {
-      Iterator<Document> docIter = corpus.iterator();
-      int currentDocIndex = 0;
-      while(docIter.hasNext()) {
-        boolean docWasLoaded =
-                corpus.isDocumentLoaded(currentDocIndex);
-        Document currentDoc = docIter.next();
-        try {
-          export(currentDoc, generator, options);
-        } finally {
-          // unload if necessary
-          if(!docWasLoaded) {
-            corpus.unloadDocument(currentDoc);
-            Factory.deleteResource(currentDoc);
+    int threads = intOption(options, "exportThreads", 1);
+    IncrementalExport incremental = IncrementalExport.fromOptions(corpus, options);
+    try(CorpusDocuments docs = openDocuments(corpus, incremental, options);
+        OutputStream target = openOutput(out, options)) {
+      if(threads > 1 || incremental != null) {
+        DocumentSink sink = new DocumentSink.Stream(target, isExportAsArray(options));
+        new ParallelCorpusExport(this, options, Math.max(1, threads),
+            longOption(options, "maxBufferedBytes", DEFAULT_MAX_BUFFERED_BYTES))
+            .export(docs, incremental == null ? sink : incremental.wrap(sink));
+        return;
+      }
+      try(JsonGenerator generator = openGenerator(target, options)) {
+        Document currentDoc;
+        while((currentDoc = docs.next()) != null) {
+          try {
+            export(currentDoc, generator, options);
+          } finally {
+            // unload if necessary
+            docs.release(currentDoc);
           }
-          currentDocIndex++;
         }
       }
     }
   }
   
+  private static CorpusDocuments openDocuments(Corpus corpus,
+      IncrementalExport incremental, FeatureMap options) {
+    int prefetch = intOption(options, "prefetchDocuments", 0);
+    if(incremental == null) return CorpusDocuments.open(corpus, prefetch);
+    return CorpusDocuments.open(corpus, prefetch, incremental::isUnchanged);
+  }
+
+  /**
+   * Wrap the stream the caller gave us in the buffering and compression
+   * requested by the options.  Closing the returned stream finishes the
+   * output and flushes it, but leaves the caller's stream open.
+   */
+  protected OutputStream openOutput(OutputStream out, FeatureMap options)
+    throws IOException {
+    int bufferSize = intOption(options, "outputBufferSize", DEFAULT_OUTPUT_BUFFER_SIZE);
+    OutputStream target = new UnclosedOutputStream(out);
+    if(booleanOption(options, "gzipOutput")) {
+      int threads = intOption(options, "compressionThreads", 1);
+      if(threads > 1) {
+        return new ParallelGzipOutputStream(target, threads, GZIP_BLOCK_SIZE);
+      }
+      target = new GZIPOutputStream(target, bufferSize);
+    }
+    return new BufferedOutputStream(target, bufferSize);
+  }
+
+  /**
+   * Passes everything through to the wrapped stream except close, which
+   * only flushes it.
+   */
+  private static class UnclosedOutputStream extends FilterOutputStream {
+    UnclosedOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      JsonMetrics.get().bytesExported(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      JsonMetrics.get().bytesExported(len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.flush();
+    }
+  }
+
   /**
    * Create a JsonGenerator ready to write to the given output stream.
    * If the specified options indicate that we want to wrap the output
@@ -156,12 +455,16 @@ public class GATEJsonExporter extends CorpusExporter {
    */
   protected JsonGenerator openGenerator(OutputStream out, FeatureMap options)
     throws IOException {
-    JsonGenerator generator = MAPPER.getFactory().createGenerator(new OutputStreamWriter(out, "UTF-8"));
+    JsonFactory factory = getJsonFactory(options);
+    JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8);
     generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    // the document writer flushes after every document; let the buffers
+    // below decide when to write instead, the stream is flushed on close
+    generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
     generator.enable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
-    if(options.containsKey("exportAsArray") && ((Boolean)options.get("exportAsArray")).booleanValue()) {
+    if(isExportAsArray(options)) {
       generator.writeStartArray();
-    } else {
+    } else if(JsonFactory.FORMAT_NAME_JSON.equals(factory.getFormatName())) {
       // writing concatenated, put newlines in between
       generator.setRootValueSeparator(new SerializedString("\n"));
     }
@@ -169,25 +472,64 @@ public class GATEJsonExporter extends CorpusExporter {
     return generator;
   }
 
+  static boolean isExportAsArray(FeatureMap options) {
+    return options.containsKey("exportAsArray") && ((Boolean)options.get("exportAsArray")).booleanValue();
+  }
+
+  /**
+   * Read a numeric option, which may have been given as a number or as a
+   * string.
+   */
+  static long longOption(FeatureMap options, String name, long defaultValue) {
+    Object value = options.get(name);
+    if(value instanceof Number) return ((Number)value).longValue();
+    if(value != null && !value.toString().trim().isEmpty()) {
+      return Long.parseLong(value.toString().trim());
+    }
+    return defaultValue;
+  }
+
+  static int intOption(FeatureMap options, String name, int defaultValue) {
+    return (int)longOption(options, name, defaultValue);
+  }
+
+  static boolean booleanOption(FeatureMap options, String name) {
+    Object value = options.get(name);
+    return Boolean.TRUE.equals(value)
+        || (value != null && Boolean.parseBoolean(value.toString().trim()));
+  }
+
   public void export(Document doc, JsonGenerator generator, FeatureMap options)
     throws IOException {
+    long startTime = System.nanoTime();
+    long prepared = startTime;
+    int records = 1;
+    Object event = JsonEvents.beginExport();
     try {
+      JsonDocumentWriter docWriter = new JsonDocumentWriter(
+          OffsetUnit.parse(options.get("offsetUnits")),
+          FeatureFilter.fromOptions(options),
+          booleanOption(options, "columnarAnnotations"));
       AnnotationSet defaultEntitiesAS =
         doc.getAnnotations((String)options.get("entitiesAnnotationSetName"));
       
       @SuppressWarnings("unchecked")
       Collection<String> types = (Collection<String>)options.get("annotationTypes");
       
-      Map<String,Collection<Annotation>> annotationsMap = new LinkedHashMap<>();
+      // for each requested type, the set it is taken from and its type
+      // within that set
+      Map<String, AnnotationSet> sourceSets = new LinkedHashMap<>();
+      Map<String, String> sourceTypes = new HashMap<>();
       
       if(types != null && !types.isEmpty()) {
         for(String type : types) {
           String[] setAndType = type.split(":", 2);
           if(setAndType.length == 1) {
-            annotationsMap.put(type, defaultEntitiesAS.get(type));
+            sourceSets.put(type, defaultEntitiesAS);
+            sourceTypes.put(type, type);
           } else {
-            annotationsMap.put(type,
-                doc.getAnnotations(setAndType[0]).get(setAndType[1]));
+            sourceSets.put(type, doc.getAnnotations(setAndType[0]));
+            sourceTypes.put(type, setAndType[1]);
           }
         }
       }
@@ -201,26 +543,103 @@ public class GATEJsonExporter extends CorpusExporter {
       
       if(docAnnots == null || docAnnots.isEmpty()) {
         // no document annotations, write everything
+        boolean stream = booleanOption(options, "streamAnnotations");
         Map<String, Collection<Annotation>> sortedAnnots = new LinkedHashMap<>();
-        for(Map.Entry<String, Collection<Annotation>> entry : annotationsMap.entrySet()) {
-          sortedAnnots.put(entry.getKey(), Utils.inDocumentOrder((AnnotationSet)entry.getValue()));
+        for(Map.Entry<String, AnnotationSet> entry : sourceSets.entrySet()) {
+          String type = sourceTypes.get(entry.getKey());
+          sortedAnnots.put(entry.getKey(), stream
+              ? new OffsetOrderedAnnotations(entry.getValue(), type)
+              : Utils.inDocumentOrder(entry.getValue().get(type)));
         }
-        DocumentJsonUtils.writeDocument(doc, 0L, Utils.end(doc), sortedAnnots, doc.getFeatures(), null, generator);
+        prepared = System.nanoTime();
+        docWriter.writeDocument(doc, 0L, Utils.end(doc), sortedAnnots, doc.getFeatures(), generator);
       } else {
+        // sort each type once, then sweep through them alongside the
+        // document annotations rather than querying each span separately
+        Map<String, SortedAnnotations> sortedAnnots = new LinkedHashMap<>();
+        for(Map.Entry<String, AnnotationSet> entry : sourceSets.entrySet()) {
+          sortedAnnots.put(entry.getKey(), new SortedAnnotations(
+              entry.getValue().get(sourceTypes.get(entry.getKey()))));
+        }
+        prepared = System.nanoTime();
+        records = docAnnots.size();
         for(Annotation docAnnot : Utils.inDocumentOrder(docAnnots)) {
           Map<String, Collection<Annotation>> coveredAnnotations = new HashMap<>();
-          for(Map.Entry<String, Collection<Annotation>> entry : annotationsMap.entrySet()) {
-            coveredAnnotations.put(entry.getKey(),
-                    Utils.inDocumentOrder(((AnnotationSet)entry.getValue()).getContained(
-                            Utils.start(docAnnot), Utils.end(docAnnot))));
+          for(Map.Entry<String, SortedAnnotations> entry : sortedAnnots.entrySet()) {
+            coveredAnnotations.put(entry.getKey(), entry.getValue().contained(
+                Utils.start(docAnnot), Utils.end(docAnnot)));
           }
-          DocumentJsonUtils.writeDocument(doc, Utils.start(docAnnot), Utils.end(docAnnot),
-                  coveredAnnotations, docAnnot.getFeatures(), null, generator);
+          docWriter.writeDocument(doc, Utils.start(docAnnot), Utils.end(docAnnot),
+                  coveredAnnotations, docAnnot.getFeatures(), generator);
         }
       }
     } catch(InvalidOffsetException e) {
       // should never happen, as all offsets come from the document itself
       throw new GateRuntimeException("Invalid offset found within document", e);
     }
+    long finished = System.nanoTime();
+    JsonMetrics.get().documentExported(finished - startTime);
+    JsonEvents.endExport(event, doc.getName(), doc.getContent().size(),
+        records, prepared - startTime, finished - prepared);
+  }
+
+  /**
+   * The annotations of one type sorted by offset, for finding those within
+   * a series of spans that are visited in order of start offset.  For spans
+   * that do not overlap, as document annotations normally do not, all the
+   * lookups together take time linear in the number of annotations.
+   */
+  private static class SortedAnnotations {
+    private final List<Annotation> annotations;
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    /**
+     * Index of the first annotation that does not start before the start
+     * of the previous span.
+     */
+    private int cursor = 0;
+
+    SortedAnnotations(Collection<Annotation> annots) {
+      annotations = new ArrayList<Annotation>(annots);
+      // ties broken by ID so the order does not depend on the set's
+      // iteration order
+      annotations.sort(Utils.OFFSET_COMPARATOR.thenComparing(Annotation::getId));
+      starts = new long[annotations.size()];
+      ends = new long[annotations.size()];
+      for(int i = 0; i < starts.length; i++) {
+        starts[i] = Utils.start(annotations.get(i));
+        ends[i] = Utils.end(annotations.get(i));
+      }
+    }
+
+    /**
+     * The annotations within the given span, in document order, with the
+     * same meaning as AnnotationSet.getContained.  Spans must be given in
+     * non-decreasing order of start offset.
+     */
+    List<Annotation> contained(long start, long end) {
+      while(cursor < starts.length && starts[cursor] < start) {
+        cursor++;
+      }
+      int first = cursor;
+      int last = first;
+      boolean allContained = true;
+      // getContained takes annotations starting before the end of the span
+      while(last < starts.length && starts[last] < end) {
+        if(ends[last] > end) allContained = false;
+        last++;
+      }
+      if(allContained) {
+        return annotations.subList(first, last);
+      }
+      List<Annotation> result = new ArrayList<Annotation>(last - first);
+      for(int i = first; i < last; i++) {
+        if(ends[i] <= end) result.add(annotations.get(i));
+      }
+      return result;
+    }
   }
 }
@@ -0,0 +1,256 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+
+package gate.corpora.export;
+
+import gate.Corpus;
+import gate.DataStore;
+import gate.Document;
+import gate.FeatureMap;
+import gate.corpora.SerialCorpusImpl;
+import gate.persist.SerialDataStore;
+import gate.util.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports only the documents of a corpus that have changed since the last
+ * export, as recorded in a manifest file.  The manifest lists every
+ * document by ID (its datastore persistence ID, or its name if it has none)
+ * with a fingerprint of the JSON last exported for it and, for documents
+ * in a serial datastore, the time the datastore file was last written.
+ *
+ * A document whose datastore file has not been written since the last
+ * export is skipped without being loaded at all.  Any other document is
+ * serialised as usual and written out only if its JSON differs from last
+ * time, so an export of an unchanged transient corpus writes nothing.
+ * Documents in the last manifest but no longer in the corpus are listed as
+ * "deleted" in the new manifest, which replaces the old one only once the
+ * export has finished successfully.
+ *
+ * The manifest also records a fingerprint of the export options; if the
+ * options change, no document is skipped unread, though documents whose
+ * JSON is unaffected are still not written again.
+ */
+class IncrementalExport {
+
+  private final Corpus corpus;
+
+  private final File manifestFile;
+
+  private final String settings;
+
+  /**
+   * Directory of the serial datastore holding the corpus, if any.
+   */
+  private final File storageDir;
+
+  /**
+   * Entries from the previous manifest, or nothing if the settings differ.
+   */
+  private final Map<String, Map<String, Object>> previous;
+
+  private final Map<String, Map<String, Object>> current =
+      new ConcurrentSkipListMap<String, Map<String, Object>>();
+
+  /**
+   * Datastore timestamps taken just before loading documents that were not
+   * already loaded, and so are known to match their stored version.
+   */
+  private final ConcurrentMap<String, Long> timestamps =
+      new ConcurrentHashMap<String, Long>();
+
+  private final AtomicLong unchanged = new AtomicLong();
+
+  private long exported = 0;
+
+  private IncrementalExport(Corpus corpus, File manifestFile, FeatureMap options)
+    throws IOException {
+    this.corpus = corpus;
+    this.manifestFile = manifestFile;
+    this.settings = settings(options);
+    DataStore ds = corpus.getDataStore();
+    this.storageDir = corpus instanceof SerialCorpusImpl
+        && ds instanceof SerialDataStore ? ((SerialDataStore)ds).getStorageDir() : null;
+    this.previous = readManifest();
+  }
+
+  /**
+   * An incremental export if the incrementalManifest option is set, or
+   * null otherwise.
+   */
+  static IncrementalExport fromOptions(Corpus corpus, FeatureMap options)
+    throws IOException {
+    Object manifest = options.get("incrementalManifest");
+    if(manifest == null || manifest.toString().trim().isEmpty()) return null;
+    File file;
+    if(manifest instanceof File) {
+      file = (File)manifest;
+    } else if(manifest instanceof URL) {
+      file = Files.fileFromURL((URL)manifest);
+    } else {
+      file = new File(manifest.toString().trim());
+    }
+    return new IncrementalExport(corpus, file, options);
+  }
+
+  /**
+   * Options that change how fast the export runs or how it is split into
+   * files, but not the JSON written for any document, so changing them
+   * does not invalidate the manifest.
+   */
+  private static final Set<String> UNFINGERPRINTED_OPTIONS = new HashSet<String>(
+      Arrays.asList("exportThreads", "prefetchDocuments", "maxBufferedBytes",
+          "outputBufferSize", "compressionThreads", "shardDocuments",
+          "shardBytes", "incrementalManifest"));
+
+  private static String settings(FeatureMap options) {
+    Map<String, String> sorted = new TreeMap<String, String>();
+    for(Map.Entry<Object, Object> option : options.entrySet()) {
+      if(UNFINGERPRINTED_OPTIONS.contains(String.valueOf(option.getKey()))) continue;
+      sorted.put(String.valueOf(option.getKey()), String.valueOf(option.getValue()));
+    }
+    return fingerprint(sorted.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Map<String, Object>> readManifest() throws IOException {
+    if(!manifestFile.isFile()) return Collections.emptyMap();
+    Map<String, Object> manifest =
+        GATEJsonExporter.MAPPER.readValue(manifestFile, Map.class);
+    Object documents = manifest.get("documents");
+    if(!settings.equals(manifest.get("settings")) && documents instanceof Map) {
+      // keep the fingerprints, but not the timestamps, which are only good
+      // for skipping documents under the same settings
+      Map<String, Map<String, Object>> fingerprints =
+          new HashMap<String, Map<String, Object>>();
+      for(Map.Entry<String, Map<String, Object>> entry
+          : ((Map<String, Map<String, Object>>)documents).entrySet()) {
+        fingerprints.put(entry.getKey(),
+            Collections.singletonMap("fingerprint", entry.getValue().get("fingerprint")));
+      }
+      return fingerprints;
+    }
+    return documents instanceof Map
+        ? (Map<String, Map<String, Object>>)documents
+        : Collections.<String, Map<String, Object>>emptyMap();
+  }
+
+  /**
+   * Can the document at the given index be left out without loading it?
+   * Called by the thread that loads the documents.
+   */
+  boolean isUnchanged(int index) {
+    if(storageDir == null || corpus.isDocumentLoaded(index)) return false;
+    SerialCorpusImpl serialCorpus = (SerialCorpusImpl)corpus;
+    Object persistenceId = serialCorpus.getDocumentPersistentID(index);
+    if(persistenceId == null) return false;
+    String id = persistenceId.toString();
+    long modified = new File(new File(storageDir,
+        serialCorpus.getDocumentClassType(index)), id).lastModified();
+    if(modified == 0) return false;
+    Map<String, Object> last = previous.get(id);
+    if(last != null && last.get("modified") instanceof Number
+        && ((Number)last.get("modified")).longValue() == modified
+        && current.putIfAbsent(id, last) == null) {
+      unchanged.incrementAndGet();
+      return true;
+    }
+    timestamps.put(id, modified);
+    return false;
+  }
+
+  /**
+   * Wrap a sink so that only changed documents reach it, and the manifest
+   * is written when it is finished.
+   */
+  DocumentSink wrap(DocumentSink sink) {
+    return new DocumentSink() {
+      @Override
+      public void write(Document doc, byte[] json) throws IOException {
+        String id = doc.getLRPersistenceId() == null
+            ? doc.getName() : doc.getLRPersistenceId().toString();
+        Map<String, Object> entry = new LinkedHashMap<String, Object>();
+        entry.put("fingerprint", fingerprint(json));
+        Long modified = timestamps.remove(id);
+        if(modified != null) entry.put("modified", modified);
+        Map<String, Object> last = previous.get(id);
+        if(current.putIfAbsent(id, entry) != null || last == null
+            || !entry.get("fingerprint").equals(last.get("fingerprint"))) {
+          // new, changed, or sharing its ID with another document
+          sink.write(doc, json);
+          exported++;
+        } else {
+          unchanged.incrementAndGet();
+        }
+      }
+
+      @Override
+      public void finish() throws IOException {
+        sink.finish();
+        writeManifest();
+      }
+    };
+  }
+
+  private void writeManifest() throws IOException {
+    List<String> deleted = new ArrayList<String>();
+    for(String id : previous.keySet()) {
+      if(!current.containsKey(id)) deleted.add(id);
+    }
+    Collections.sort(deleted);
+    Map<String, Object> manifest = new LinkedHashMap<String, Object>();
+    manifest.put("settings", settings);
+    manifest.put("exported", exported);
+    manifest.put("unchanged", unchanged.get());
+    manifest.put("deleted", deleted);
+    manifest.put("documents", current);
+    File temp = new File(manifestFile.getAbsoluteFile().getParentFile(),
+        manifestFile.getName() + ".tmp");
+    GATEJsonExporter.MAPPER.writeValue(temp, manifest);
+    java.nio.file.Files.move(temp.toPath(), manifestFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static String fingerprint(byte[] bytes) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+      StringBuilder hex = new StringBuilder(digest.length * 2);
+      for(byte b : digest) {
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+            .append(Character.forDigit(b & 0xf, 16));
+      }
+      return hex.toString();
+    } catch(NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-1
+      throw new IllegalStateException(e);
+    }
+  }
+}
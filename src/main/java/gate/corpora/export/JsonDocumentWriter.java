@@ -0,0 +1,341 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+
+package gate.corpora.export;
+
+import gate.Annotation;
+import gate.Document;
+import gate.corpora.json.OffsetConverter;
+import gate.corpora.json.OffsetUnit;
+import gate.corpora.json.ScratchBuffers;
+import gate.util.InvalidOffsetException;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Writes (part of) a GATE document as a Twitter-style JSON object, with the
+ * text, an "entities" object holding the annotations, and any extra
+ * features as further properties.  The output is the same as that of
+ * {@link gate.corpora.DocumentJsonUtils}, except that the "indices" of the
+ * entities can be counted in any {@link OffsetUnit}, not just code points.
+ */
+class JsonDocumentWriter {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final SerializedString TEXT = new SerializedString("text");
+
+  private static final SerializedString ENTITIES = new SerializedString("entities");
+
+  private static final SerializedString INDICES = new SerializedString("indices");
+
+  private static final SerializedString STARTS = new SerializedString("starts");
+
+  private static final SerializedString ENDS = new SerializedString("ends");
+
+  private static final SerializedString FEATURES = new SerializedString("features");
+
+  /**
+   * Annotation type and feature names, encoded once.  Bounded, as the
+   * names come from the data.
+   */
+  private static final ConcurrentMap<String, SerializedString> NAMES =
+      new ConcurrentHashMap<String, SerializedString>();
+
+  private static final int MAX_CACHED_NAMES = 4096;
+
+  private final ObjectWriter writer = MAPPER.writer();
+
+  private final OffsetUnit offsetUnits;
+
+  private final FeatureFilter filter;
+
+  private final boolean columnar;
+
+  JsonDocumentWriter(OffsetUnit offsetUnits) {
+    this(offsetUnits, FeatureFilter.NONE);
+  }
+
+  JsonDocumentWriter(OffsetUnit offsetUnits, FeatureFilter filter) {
+    this(offsetUnits, filter, false);
+  }
+
+  /**
+   * @param columnar write the annotations of each type as parallel arrays
+   *          of offsets and feature values rather than one object each
+   */
+  JsonDocumentWriter(OffsetUnit offsetUnits, FeatureFilter filter, boolean columnar) {
+    this.offsetUnits = offsetUnits;
+    this.filter = filter;
+    this.columnar = columnar;
+  }
+
+  /**
+   * Write the span of the document from start to end.
+   *
+   * @param annotationsMap the annotations to write, keyed by the name to use
+   *          in the "entities" object
+   * @param extraFeatures additional properties of the output object, may be
+   *          null
+   */
+  public void writeDocument(Document doc, long start, long end,
+      Map<String, Collection<Annotation>> annotationsMap, Map<?, ?> extraFeatures,
+      JsonGenerator json) throws IOException, InvalidOffsetException {
+    json.writeStartObject();
+    OffsetConverter.Builder offsets = ScratchBuffers.get().offsetsBuilder();
+    String text = escape(doc.getContent().getContent(start, end).toString(),
+        offsetUnits, offsets);
+    OffsetConverter converter = offsets.build();
+    json.writeFieldName(TEXT);
+    json.writeString(text);
+    json.writeFieldName(ENTITIES);
+    json.writeStartObject();
+
+    Object entitiesExtraFeature =
+        extraFeatures == null ? null : extraFeatures.get("entities");
+    Map<?, ?> entitiesMap = null;
+    if(entitiesExtraFeature instanceof Map) {
+      entitiesMap = (Map<?, ?>)entitiesExtraFeature;
+    }
+
+    for(Map.Entry<String, Collection<Annotation>> entry : annotationsMap.entrySet()) {
+      String annotationType = entry.getKey();
+      json.writeFieldName(name(annotationType));
+      if(columnar && (entitiesMap == null || entitiesMap.get(annotationType) == null)) {
+        // original entities can only be written in the usual layout
+        writeColumns(annotationType, entry.getValue(), start, converter, json);
+        continue;
+      }
+      json.writeStartArray();
+      for(Annotation a : entry.getValue()) {
+        json.writeStartObject();
+        json.writeFieldName(INDICES);
+        json.writeStartArray();
+        json.writeNumber(converter.convert(a.getStartNode().getOffset() - start));
+        json.writeNumber(converter.convert(a.getEndNode().getOffset() - start));
+        json.writeEndArray();
+        for(Map.Entry<Object, Object> feature : a.getFeatures().entrySet()) {
+          if(!filter.keepAnnotationFeature(annotationType, feature.getKey(),
+              feature.getValue())) {
+            continue;
+          }
+          json.writeFieldName(name(feature.getKey()));
+          writeValue(json, feature.getValue());
+        }
+        json.writeEndObject();
+      }
+      if(entitiesMap != null && entitiesMap.get(annotationType) instanceof Collection) {
+        // entities of this type that were present in the original JSON
+        for(Object ent : (Collection<?>)entitiesMap.get(annotationType)) {
+          writeValue(json, ent);
+        }
+      }
+      json.writeEndArray();
+    }
+    if(entitiesMap != null) {
+      for(Map.Entry<?, ?> entry : entitiesMap.entrySet()) {
+        if(annotationsMap.containsKey(entry.getKey())) continue;
+        json.writeFieldName(name(entry.getKey()));
+        writeValue(json, entry.getValue());
+      }
+    }
+    json.writeEndObject();
+
+    if(extraFeatures != null) {
+      for(Map.Entry<?, ?> entry : extraFeatures.entrySet()) {
+        if("text".equals(entry.getKey()) || "entities".equals(entry.getKey())
+            || !filter.keepDocumentFeature(entry.getKey(), entry.getValue())) {
+          continue;
+        }
+        json.writeFieldName(name(entry.getKey()));
+        writeValue(json, entry.getValue());
+      }
+    }
+    json.writeEndObject();
+    json.flush();
+  }
+
+  /**
+   * Write annotations of one type in the columnar layout read by
+   * {@link gate.corpora.json.JSONDocument}: parallel "starts" and "ends"
+   * arrays and a column of values for each feature, with null where an
+   * annotation lacks the feature, which is also how a null value comes out
+   * and so is lost on the way back in.  The annotations are walked once to find
+   * the features and then once for each column, rather than copied, so a
+   * collection that is produced as it is walked (see
+   * {@link OffsetOrderedAnnotations}) never has to be held all at once.
+   */
+  private void writeColumns(String annotationType, Collection<Annotation> annotations,
+      long start, OffsetConverter converter, JsonGenerator json) throws IOException {
+    Set<Object> featureNames = new LinkedHashSet<Object>();
+    for(Annotation a : annotations) {
+      for(Map.Entry<Object, Object> feature : a.getFeatures().entrySet()) {
+        if(filter.keepAnnotationFeature(annotationType, feature.getKey(),
+            feature.getValue())) {
+          featureNames.add(feature.getKey());
+        }
+      }
+    }
+    json.writeStartObject();
+    json.writeFieldName(STARTS);
+    json.writeStartArray();
+    for(Annotation a : annotations) {
+      json.writeNumber(converter.convert(a.getStartNode().getOffset() - start));
+    }
+    json.writeEndArray();
+    json.writeFieldName(ENDS);
+    json.writeStartArray();
+    for(Annotation a : annotations) {
+      json.writeNumber(converter.convert(a.getEndNode().getOffset() - start));
+    }
+    json.writeEndArray();
+    json.writeFieldName(FEATURES);
+    json.writeStartObject();
+    for(Object featureName : featureNames) {
+      json.writeFieldName(name(featureName));
+      json.writeStartArray();
+      for(Annotation a : annotations) {
+        Object value = a.getFeatures().get(featureName);
+        if(value != null && filter.keepAnnotationFeature(annotationType,
+            featureName, value)) {
+          writeValue(json, value);
+        } else {
+          json.writeNull();
+        }
+      }
+      json.writeEndArray();
+    }
+    json.writeEndObject();
+    json.writeEndObject();
+  }
+
+  /**
+   * The pre-encoded form of a field name, shared by all writers for the
+   * names seen most often.
+   */
+  static SerializableString name(Object key) {
+    String str = String.valueOf(key);
+    SerializedString name = NAMES.get(str);
+    if(name == null) {
+      name = new SerializedString(str);
+      if(NAMES.size() < MAX_CACHED_NAMES) NAMES.putIfAbsent(str, name);
+    }
+    return name;
+  }
+
+  /**
+   * Write a feature value.  The types a FeatureMap built from JSON holds
+   * are written directly, so only other types go through the (much slower)
+   * databinding, and the result is the same as databinding would give for
+   * every value.
+   */
+  void writeValue(JsonGenerator json, Object value) throws IOException {
+    if(value == null) {
+      json.writeNull();
+    } else if(value instanceof String) {
+      json.writeString((String)value);
+    } else if(value instanceof Long) {
+      json.writeNumber(((Long)value).longValue());
+    } else if(value instanceof Integer) {
+      json.writeNumber(((Integer)value).intValue());
+    } else if(value instanceof Double) {
+      json.writeNumber(((Double)value).doubleValue());
+    } else if(value instanceof Boolean) {
+      json.writeBoolean(((Boolean)value).booleanValue());
+    } else if(value instanceof List) {
+      json.writeStartArray();
+      for(Object item : (List<?>)value) {
+        writeValue(json, item);
+      }
+      json.writeEndArray();
+    } else if(value instanceof Map && hasStringKeys((Map<?, ?>)value)) {
+      json.writeStartObject();
+      for(Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+        json.writeFieldName(name(entry.getKey()));
+        writeValue(json, entry.getValue());
+      }
+      json.writeEndObject();
+    } else {
+      writer.writeValue(json, value);
+    }
+  }
+
+  /**
+   * Maps with other keys are left to databinding, which has its own rules
+   * for turning keys into names (and rejects null keys).
+   */
+  private static boolean hasStringKeys(Map<?, ?> map) {
+    for(Object key : map.keySet()) {
+      if(!(key instanceof String)) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Escape &amp;, &lt; and &gt; as HTML entities the way Twitter does,
+   * recording in the supplied builder how offsets in the GATE text map to
+   * offsets in the escaped text counted in the given units.
+   */
+  static String escape(String str, OffsetUnit units, OffsetConverter.Builder offsets) {
+    int len = str.length();
+    StringBuilder buf = null;
+    int outOffset = 0;
+    int i = 0;
+    while(i < len) {
+      char c = str.charAt(i);
+      String replace = null;
+      switch(c) {
+        case '&': replace = "&amp;"; break;
+        case '<': replace = "&lt;"; break;
+        case '>': replace = "&gt;"; break;
+        default:
+      }
+      if(replace != null) {
+        if(buf == null) {
+          buf = ScratchBuffers.get().textBuilder();
+          buf.append(str, 0, i);
+        }
+        offsets.addEvent(i, 1, outOffset, replace.length());
+        buf.append(replace);
+        outOffset += replace.length();
+        i++;
+        continue;
+      }
+      int gateLen = 1;
+      int codePoint = c;
+      if(Character.isHighSurrogate(c) && i + 1 < len
+          && Character.isLowSurrogate(str.charAt(i + 1))) {
+        codePoint = Character.toCodePoint(c, str.charAt(i + 1));
+        gateLen = 2;
+      }
+      int outLen = units.length(codePoint);
+      if(outLen != gateLen) {
+        offsets.addEvent(i, gateLen, outOffset, outLen);
+      }
+      if(buf != null) buf.append(str, i, i + gateLen);
+      outOffset += outLen;
+      i += gateLen;
+    }
+    return buf == null ? str : buf.toString();
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+
+package gate.corpora.export;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Utils;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The annotations of one type in a set, in document order, found by
+ * walking the set's own offset index as the collection is iterated.  No
+ * copy of the annotations is made; at any moment only those starting at
+ * the current offset are held.
+ *
+ * Annotations with the same start are ordered by end offset and then by
+ * ID, so the order is the same as that of Utils.inDocumentOrder apart from
+ * annotations with identical spans.  The set must not change while it is
+ * being iterated.
+ */
+class OffsetOrderedAnnotations extends AbstractCollection<Annotation> {
+
+  private static final Comparator<Annotation> END_THEN_ID =
+      Comparator.comparingLong((Annotation a) -> Utils.end(a))
+          .thenComparing(Annotation::getId);
+
+  private final AnnotationSet source;
+
+  private final String type;
+
+  OffsetOrderedAnnotations(AnnotationSet source, String type) {
+    this.source = source;
+    this.type = type;
+  }
+
+  @Override
+  public Iterator<Annotation> iterator() {
+    return new Iterator<Annotation>() {
+      /**
+       * Where to look for the next annotations, null once the set has been
+       * exhausted.
+       */
+      private Long offset = 0L;
+
+      private final List<Annotation> group = new ArrayList<Annotation>();
+
+      private int position = 0;
+
+      @Override
+      public boolean hasNext() {
+        while(position >= group.size() && offset != null) {
+          group.clear();
+          position = 0;
+          // all the annotations starting at the first offset at or after
+          // this one where any annotation starts
+          AnnotationSet starting = source.get(offset);
+          if(starting.isEmpty()) {
+            offset = null;
+            break;
+          }
+          long start = 0;
+          for(Annotation a : starting) {
+            start = Utils.start(a);
+            if(type.equals(a.getType())) group.add(a);
+          }
+          if(group.size() > 1) group.sort(END_THEN_ID);
+          offset = start + 1;
+        }
+        return position < group.size();
+      }
+
+      @Override
+      public Annotation next() {
+        if(!hasNext()) throw new NoSuchElementException();
+        return group.get(position++);
+      }
+    };
+  }
+
+  /**
+   * Counts the annotations by walking the set, so takes time proportional
+   * to the size of the whole set.
+   */
+  @Override
+  public int size() {
+    int size = 0;
+    for(Iterator<Annotation> it = iterator(); it.hasNext(); it.next()) {
+      size++;
+    }
+    return size;
+  }
+}
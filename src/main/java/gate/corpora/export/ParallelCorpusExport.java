@@ -0,0 +1,180 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+
+package gate.corpora.export;
+
+import gate.Document;
+import gate.FeatureMap;
+import gate.util.GateRuntimeException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * Exports a corpus using a pool of worker threads.  Each worker serialises
+ * one whole document into a private byte buffer, and the calling thread
+ * passes the finished buffers to a {@link DocumentSink} in corpus order, so
+ * the result is byte for byte what a sequential export would have written.
+ *
+ * Workers never touch the corpus itself, since corpora and datastores are
+ * not safe for concurrent access; documents are taken from and released
+ * back to a {@link CorpusDocuments} on the calling thread.  That thread
+ * stops handing out work while too many documents are in flight or the
+ * finished but unwritten buffers hold more than the configured number of
+ * bytes.
+ */
+class ParallelCorpusExport {
+
+  private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+  private final GATEJsonExporter exporter;
+
+  private final FeatureMap options;
+
+  private final int threads;
+
+  private final long maxBufferedBytes;
+
+  private final boolean asArray;
+
+  /**
+   * Bytes held in buffers that have been serialised but not yet written.
+   */
+  private final AtomicLong bufferedBytes = new AtomicLong();
+
+  ParallelCorpusExport(GATEJsonExporter exporter, FeatureMap options,
+      int threads, long maxBufferedBytes) {
+    this.exporter = exporter;
+    this.options = options;
+    this.threads = threads;
+    this.maxBufferedBytes = maxBufferedBytes;
+    this.asArray = GATEJsonExporter.isExportAsArray(options);
+  }
+
+  /**
+   * A document that has been handed to a worker.
+   */
+  private static class Pending {
+    final Document document;
+
+    final Future<byte[]> json;
+
+    Pending(Document document, Future<byte[]> json) {
+      this.document = document;
+      this.json = json;
+    }
+  }
+
+  public void export(CorpusDocuments docs, DocumentSink sink) throws IOException {
+    int poolNumber = POOL_COUNTER.incrementAndGet();
+    AtomicInteger threadCounter = new AtomicInteger();
+    ThreadFactory threadFactory = r -> {
+      Thread t = new Thread(r, "GATE JSON export " + poolNumber + "-"
+          + threadCounter.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    };
+    ExecutorService workers = Executors.newFixedThreadPool(threads, threadFactory);
+    Deque<Pending> pending = new ArrayDeque<Pending>();
+    int maxInFlight = threads * 4;
+    try {
+      Document currentDoc;
+      while((currentDoc = docs.next()) != null) {
+        // write out whatever is finished, and wait for the oldest document
+        // if we are holding too much
+        while(!pending.isEmpty()
+            && (pending.size() >= maxInFlight
+                || bufferedBytes.get() >= maxBufferedBytes
+                || pending.peekFirst().json.isDone())) {
+          write(pending.removeFirst(), docs, sink);
+        }
+        Document doc = currentDoc;
+        pending.addLast(new Pending(doc, workers.submit(() -> serialise(doc))));
+      }
+      while(!pending.isEmpty()) {
+        write(pending.removeFirst(), docs, sink);
+      }
+      sink.finish();
+    } finally {
+      workers.shutdownNow();
+      // release anything we did not get round to writing, once the workers
+      // have stopped touching it
+      if(!pending.isEmpty()) {
+        try {
+          workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      for(Pending p : pending) {
+        docs.release(p.document);
+      }
+    }
+  }
+
+  /**
+   * Serialise one document into a new buffer.  Runs on a worker thread.
+   */
+  private byte[] serialise(Document doc) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+    try(JsonGenerator generator = GATEJsonExporter.MAPPER.getFactory()
+        .createGenerator(buffer, JsonEncoding.UTF8)) {
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      // a document annotation export can produce several objects from one
+      // document, which must be separated just as the sequential export
+      // would separate them
+      generator.setRootValueSeparator(new SerializedString(asArray ? "," : "\n"));
+      exporter.export(doc, generator, options);
+    }
+    byte[] json = buffer.toByteArray();
+    bufferedBytes.addAndGet(json.length);
+    return json;
+  }
+
+  /**
+   * Wait for a document to be serialised, pass it to the sink and release
+   * it.
+   */
+  private void write(Pending p, CorpusDocuments docs, DocumentSink sink)
+      throws IOException {
+    try {
+      byte[] json = p.json.get();
+      bufferedBytes.addAndGet(-json.length);
+      sink.write(p.document, json);
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while exporting "
+          + p.document.getName());
+    } catch(ExecutionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof IOException) throw (IOException)cause;
+      if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+      if(cause instanceof Error) throw (Error)cause;
+      throw new GateRuntimeException("Error exporting " + p.document.getName(), cause);
+    } finally {
+      docs.release(p.document);
+    }
+  }
+}
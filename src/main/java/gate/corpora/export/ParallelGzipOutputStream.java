@@ -0,0 +1,149 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+
+package gate.corpora.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip-compresses its output on several threads at once.  The data is cut
+ * into fixed size blocks, each block is compressed on a worker thread as a
+ * complete gzip member, and the members are written out in order.  The
+ * result is a multi-member gzip file, which gzip, zcat and
+ * {@link java.util.zip.GZIPInputStream} all read as a single stream.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+
+  private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+  private final OutputStream out;
+
+  private final int blockSize;
+
+  private final ExecutorService workers;
+
+  private final Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+  private final int maxPending;
+
+  private byte[] block;
+
+  private int count = 0;
+
+  private boolean wroteMember = false;
+
+  private boolean closed = false;
+
+  ParallelGzipOutputStream(OutputStream out, int threads, int blockSize) {
+    this.out = out;
+    this.blockSize = blockSize;
+    this.block = new byte[blockSize];
+    this.maxPending = threads * 2;
+    int poolNumber = POOL_COUNTER.incrementAndGet();
+    AtomicInteger threadCounter = new AtomicInteger();
+    this.workers = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "GATE JSON gzip " + poolNumber + "-"
+          + threadCounter.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if(count == blockSize) submitBlock();
+    block[count++] = (byte)b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while(len > 0) {
+      if(count == blockSize) submitBlock();
+      int n = Math.min(len, blockSize - count);
+      System.arraycopy(b, off, block, count, n);
+      count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Writes out any blocks that have finished compressing.  The current
+   * block is not cut short, since every block boundary costs some
+   * compression.
+   */
+  @Override
+  public void flush() throws IOException {
+    while(!pending.isEmpty() && pending.peekFirst().isDone()) {
+      writeMember(pending.removeFirst());
+    }
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if(closed) return;
+    closed = true;
+    try {
+      // an empty stream still needs one member to be valid gzip
+      if(count > 0 || !wroteMember) submitBlock();
+      while(!pending.isEmpty()) {
+        writeMember(pending.removeFirst());
+      }
+      out.close();
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  private void submitBlock() throws IOException {
+    final byte[] data = block;
+    final int length = count;
+    pending.addLast(workers.submit(() -> compress(data, length)));
+    wroteMember = true;
+    block = new byte[blockSize];
+    count = 0;
+    while(!pending.isEmpty()
+        && (pending.size() > maxPending || pending.peekFirst().isDone())) {
+      writeMember(pending.removeFirst());
+    }
+  }
+
+  private void writeMember(Future<byte[]> member) throws IOException {
+    try {
+      out.write(member.get());
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing");
+    } catch(ExecutionException e) {
+      if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+      throw new IOException("Error compressing output", e.getCause());
+    }
+  }
+
+  private static byte[] compress(byte[] data, int length) throws IOException {
+    ByteArrayOutputStream member = new ByteArrayOutputStream(length / 4 + 64);
+    try(GZIPOutputStream gzip = new GZIPOutputStream(member, 8192)) {
+      gzip.write(data, 0, length);
+    }
+    return member.toByteArray();
+  }
+}
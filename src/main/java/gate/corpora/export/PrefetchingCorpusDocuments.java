@@ -0,0 +1,161 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+
+package gate.corpora.export;
+
+import gate.Corpus;
+import gate.Document;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+/**
+ * Loads the documents of a corpus on a background thread, keeping up to a
+ * fixed number ready ahead of the exporter, so datastore reads overlap with
+ * writing the JSON.
+ *
+ * Corpora are not safe for concurrent access, so the background thread is
+ * the only one to touch the corpus: released documents are passed back to
+ * it to be unloaded in between loads.
+ */
+class PrefetchingCorpusDocuments extends CorpusDocuments {
+
+  private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+  private static final Object END = new Object();
+
+  private static final long POLL_MILLIS = 10;
+
+  private final Corpus corpus;
+
+  private final IntPredicate skip;
+
+  /**
+   * Loaded documents waiting to be exported, then END or the Throwable that
+   * stopped the loading.
+   */
+  private final BlockingQueue<Object> loaded;
+
+  private final BlockingQueue<Document> released = new LinkedBlockingQueue<Document>();
+
+  private final Thread loader;
+
+  private volatile boolean closed = false;
+
+  private boolean finished = false;
+
+  PrefetchingCorpusDocuments(Corpus corpus, int prefetch, IntPredicate skip) {
+    this.corpus = corpus;
+    this.skip = skip;
+    this.loaded = new ArrayBlockingQueue<Object>(prefetch + 1);
+    loader = new Thread(this::load,
+        "GATE JSON export loader " + THREAD_COUNTER.incrementAndGet());
+    loader.setDaemon(true);
+    loader.start();
+  }
+
+  @Override
+  public Document next() throws IOException {
+    if(finished) return null;
+    Object next;
+    try {
+      next = loaded.take();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for next document");
+    }
+    if(next instanceof Document) return (Document)next;
+    finished = true;
+    if(next instanceof IOException) throw (IOException)next;
+    if(next instanceof RuntimeException) throw (RuntimeException)next;
+    if(next instanceof Error) throw (Error)next;
+    if(next instanceof Throwable) throw new IOException((Throwable)next);
+    return null;
+  }
+
+  @Override
+  public void release(Document doc) {
+    released.add(doc);
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    try {
+      loader.join();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for loader to finish");
+    }
+  }
+
+  /**
+   * Body of the loader thread.
+   */
+  private void load() {
+    Set<Document> toUnload = identitySet();
+    try {
+      for(int i = 0; !closed && i < corpus.size(); i++) {
+        if(skip.test(i)) continue;
+        boolean docWasLoaded = corpus.isDocumentLoaded(i);
+        Document currentDoc = corpus.get(i);
+        if(!docWasLoaded) toUnload.add(currentDoc);
+        handOver(currentDoc, toUnload);
+      }
+      handOver(END, toUnload);
+    } catch(Throwable t) {
+      handOver(t, toUnload);
+    }
+    try {
+      while(!closed) {
+        Document doc = released.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if(doc != null && toUnload.remove(doc)) unload(corpus, doc);
+      }
+    } catch(InterruptedException e) {
+      // fall through and clean up
+    } finally {
+      // the exporter has finished, so anything not yet unloaded can go
+      released.clear();
+      loaded.clear();
+      for(Document doc : toUnload) {
+        unload(corpus, doc);
+      }
+    }
+  }
+
+  /**
+   * Queue an item for the exporter, unloading released documents while we
+   * wait for room in the queue.
+   */
+  private void handOver(Object item, Set<Document> toUnload) {
+    try {
+      while(!closed && !loaded.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+        unloadReleased(toUnload);
+      }
+      unloadReleased(toUnload);
+    } catch(InterruptedException e) {
+      closed = true;
+    }
+  }
+
+  private void unloadReleased(Set<Document> toUnload) {
+    Document doc;
+    while((doc = released.poll()) != null) {
+      if(toUnload.remove(doc)) unload(corpus, doc);
+    }
+  }
+}
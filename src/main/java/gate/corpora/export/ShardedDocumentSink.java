@@ -0,0 +1,302 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+
+package gate.corpora.export;
+
+import gate.Document;
+import gate.FeatureMap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Spreads the exported documents over a series of files, starting a new
+ * one once the current file holds a given number of documents or bytes.
+ * For an export to "tweets.json" the files are named "tweets-00000.json",
+ * "tweets-00001.json" and so on, and once the export is complete a
+ * manifest "tweets-manifest.json" lists each file with the number of
+ * documents it holds, the bytes of document JSON in it ("jsonBytes", what
+ * the byte limit counts, before compression and leaving out the array
+ * brackets and separators) and the size of the file itself ("fileBytes").  Shards left over from an earlier, larger
+ * export to the same name are deleted, so the files on disk always match
+ * the manifest.
+ *
+ * Each file is a complete export in its own right, an array or newline
+ * separated values as requested.  Documents are still assigned to shards
+ * in corpus order, so the split does not depend on timing, but each shard
+ * is written, and compressed if asked, on a thread of its own: once a
+ * shard has all its documents the next is started straight away while the
+ * earlier ones catch up, so with compressed output as many shards as there
+ * are export threads (and at least two) are being compressed at once.
+ */
+class ShardedDocumentSink implements DocumentSink {
+
+  static final String MANIFEST_SUFFIX = "-manifest.json";
+
+  /**
+   * Documents queued for a shard before the export waits for it to catch
+   * up.
+   */
+  private static final int QUEUE_SIZE = 64;
+
+  /**
+   * Queued after the last document of a shard, compared by identity.
+   */
+  private static final byte[] END_OF_SHARD = new byte[0];
+
+  private final GATEJsonExporter exporter;
+
+  private final FeatureMap options;
+
+  private final File directory;
+
+  private final String baseName;
+
+  private final String extension;
+
+  private final long maxDocuments;
+
+  private final long maxBytes;
+
+  private final boolean asArray;
+
+  private final ExecutorService writers;
+
+  private final List<Future<Map<String, Object>>> shards =
+      new ArrayList<Future<Map<String, Object>>>();
+
+  private Shard current = null;
+
+  /**
+   * @param target the file the export was asked to write, from which the
+   *          names of the shards are derived
+   * @param maxDocuments documents per shard, or 0 for no limit
+   * @param maxBytes bytes of JSON per shard, or 0 for no limit.  A shard is
+   *          closed after the document that takes it over the limit, so
+   *          documents are never split between shards.
+   */
+  ShardedDocumentSink(GATEJsonExporter exporter, FeatureMap options,
+      File target, long maxDocuments, long maxBytes) {
+    this.exporter = exporter;
+    this.options = options;
+    this.directory = target.getAbsoluteFile().getParentFile();
+    String name = target.getName();
+    int dot = name.indexOf('.', 1);
+    if(dot < 0) {
+      this.baseName = name;
+      this.extension = GATEJsonExporter.booleanOption(options, "gzipOutput")
+          ? ".json.gz" : ".json";
+    } else {
+      this.baseName = name.substring(0, dot);
+      this.extension = name.substring(dot);
+    }
+    this.maxDocuments = maxDocuments;
+    this.maxBytes = maxBytes;
+    this.asArray = GATEJsonExporter.isExportAsArray(options);
+    AtomicInteger threadCounter = new AtomicInteger();
+    this.writers = Executors.newFixedThreadPool(
+        Math.max(2, GATEJsonExporter.intOption(options, "exportThreads", 1)), r -> {
+          Thread t = new Thread(r, "GATE JSON shard writer "
+              + threadCounter.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+  }
+
+  /**
+   * The file the manifest is written to.
+   */
+  File getManifestFile() {
+    return new File(directory, baseName + MANIFEST_SUFFIX);
+  }
+
+  private class Shard {
+    final File file;
+
+    final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE_SIZE);
+
+    final Future<Map<String, Object>> result;
+
+    long documents = 0;
+
+    long bytes = 0;
+
+    /** Only touched by the thread writing the file. */
+    boolean ended = false;
+
+    Shard(int number) {
+      file = new File(directory, String.format("%s-%05d%s", baseName, number, extension));
+      result = writers.submit(this::writeFile);
+    }
+
+    void write(byte[] json) throws IOException {
+      put(json);
+      documents++;
+      bytes += json.length;
+    }
+
+    boolean isFull() {
+      return (maxDocuments > 0 && documents >= maxDocuments)
+          || (maxBytes > 0 && bytes >= maxBytes);
+    }
+
+    void end() throws IOException {
+      put(END_OF_SHARD);
+    }
+
+    private void put(byte[] json) throws IOException {
+      try {
+        queue.put(json);
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while writing shards");
+      }
+    }
+
+    private Map<String, Object> writeFile() throws Exception {
+      long written = 0;
+      long jsonBytes = 0;
+      try(FileOutputStream fileOut = new FileOutputStream(file);
+          OutputStream out = exporter.openOutput(fileOut, options)) {
+        DocumentSink.Stream sink = new DocumentSink.Stream(out, asArray);
+        byte[] json;
+        while((json = queue.take()) != END_OF_SHARD) {
+          // the stream only needs the bytes
+          sink.write(null, json);
+          written++;
+          jsonBytes += json.length;
+        }
+        ended = true;
+        sink.finish();
+      } catch(Exception e) {
+        // keep taking documents so the export is not left waiting on a
+        // full queue, it finds out about the failure soon enough
+        while(!ended) ended = queue.take() == END_OF_SHARD;
+        throw e;
+      }
+      Map<String, Object> entry = new LinkedHashMap<String, Object>();
+      entry.put("name", file.getName());
+      entry.put("documents", written);
+      entry.put("jsonBytes", jsonBytes);
+      entry.put("fileBytes", file.length());
+      return entry;
+    }
+  }
+
+  @Override
+  public void write(Document doc, byte[] json) throws IOException {
+    if(current == null) {
+      current = new Shard(shards.size());
+      shards.add(current.result);
+    } else if(current.result.isDone()) {
+      // the shard can only have finished early by failing
+      result(current.result);
+    }
+    current.write(json);
+    if(current.isFull()) {
+      current.end();
+      current = null;
+    }
+  }
+
+  @Override
+  public void finish() throws IOException {
+    try {
+      if(current != null) {
+        current.end();
+        current = null;
+      }
+      List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+      long documents = 0;
+      for(Future<Map<String, Object>> shard : shards) {
+        Map<String, Object> entry = result(shard);
+        documents += (Long)entry.get("documents");
+        entries.add(entry);
+      }
+      Map<String, Object> manifest = new LinkedHashMap<String, Object>();
+      manifest.put("documents", documents);
+      manifest.put("shards", entries);
+      deleteStaleShards(entries.size());
+      File manifestFile = getManifestFile();
+      File temp = new File(directory, manifestFile.getName() + ".tmp");
+      GATEJsonExporter.MAPPER.writerWithDefaultPrettyPrinter()
+          .writeValue(temp, manifest);
+      Files.move(temp.toPath(), manifestFile.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      writers.shutdown();
+    }
+  }
+
+  private static Map<String, Object> result(Future<Map<String, Object>> shard)
+    throws IOException {
+    try {
+      return shard.get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing shards");
+    } catch(ExecutionException e) {
+      if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+      throw new IOException("Error writing shard", e.getCause());
+    }
+  }
+
+  /**
+   * Delete the shards numbered from the given one up, which can only have
+   * been written by an earlier export.
+   */
+  private void deleteStaleShards(int first) throws IOException {
+    Pattern shardName = Pattern.compile(Pattern.quote(baseName) + "-(\\d{5,})"
+        + Pattern.quote(extension));
+    File[] files = directory.listFiles();
+    if(files == null) return;
+    for(File file : files) {
+      Matcher m = shardName.matcher(file.getName());
+      if(m.matches() && (m.group(1).length() > 9
+          || Integer.parseInt(m.group(1)) >= first)) {
+        Files.deleteIfExists(file.toPath());
+      }
+    }
+  }
+
+  /**
+   * Close whatever is still open after a failed export, without writing a
+   * manifest.
+   */
+  void abort() {
+    if(current != null) {
+      try {
+        current.end();
+      } catch(IOException e) {
+        // already failing
+      }
+      current = null;
+    }
+    writers.shutdown();
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Access to the binary encodings of the JSON data model, Smile and CBOR,
+ * which the format and exporter can read and write in place of JSON text
+ * to avoid tokenising numbers and strings between pipeline stages.
+ *
+ * Each is provided by a Jackson dataformat module (jackson-dataformat-smile
+ * or jackson-dataformat-cbor, matching the Jackson version used by GATE),
+ * bundled with the plugin.
+ */
+public final class BinaryJson {
+
+  public static final String SMILE = "smile";
+
+  public static final String CBOR = "cbor";
+
+  public static final String SMILE_MIME_TYPE = "application/x-jackson-smile";
+
+  public static final String CBOR_MIME_TYPE = "application/cbor";
+
+  private static final ObjectMapper SMILE_MAPPER =
+      new ObjectMapper(new SmileFactory());
+
+  /**
+   * Writes the CBOR self-describe tag first, so {@link #detect} recognises
+   * what it writes.
+   */
+  private static final ObjectMapper CBOR_MAPPER = new ObjectMapper(
+      new CBORFactory().enable(CBORGenerator.Feature.WRITE_TYPE_HEADER));
+
+  private BinaryJson() {
+  }
+
+  /**
+   * The encoding (SMILE or CBOR) named by a name or a mime type, or null if
+   * it is neither.
+   */
+  public static String forName(String name) {
+    if(name == null) return null;
+    name = name.trim().toLowerCase();
+    if(name.equals(SMILE) || name.equals(SMILE_MIME_TYPE) || name.endsWith("smile")) {
+      return SMILE;
+    }
+    if(name.equals(CBOR) || name.equals(CBOR_MIME_TYPE) || name.endsWith("cbor")) {
+      return CBOR;
+    }
+    return null;
+  }
+
+  /**
+   * Identify the encoding from the first bytes of the data: Smile begins
+   * with the header ":)\n", and CBOR written by Jackson with the
+   * self-describe tag 55799.  Returns null for anything else.
+   */
+  public static String detect(byte[] prefix, int length) {
+    if(length >= 3 && prefix[0] == ':' && prefix[1] == ')' && prefix[2] == '\n') {
+      return SMILE;
+    }
+    if(length >= 3 && (prefix[0] & 0xff) == 0xd9 && (prefix[1] & 0xff) == 0xd9
+        && (prefix[2] & 0xff) == 0xf7) {
+      return CBOR;
+    }
+    return null;
+  }
+
+  /**
+   * A mapper whose factory reads and writes the given encoding.
+   *
+   * @throws IOException if the encoding is unknown
+   */
+  public static ObjectMapper mapper(String encoding) throws IOException {
+    if(SMILE.equals(encoding)) return SMILE_MAPPER;
+    if(CBOR.equals(encoding)) return CBOR_MAPPER;
+    throw new IOException("Unknown binary JSON encoding " + encoding);
+  }
+}
@@ -0,0 +1,621 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Vector;
+
+import gate.FeatureMap;
+import gate.creole.ontology.OClass;
+import gate.creole.ontology.OConstants;
+import gate.creole.ontology.Ontology;
+import gate.event.FeatureMapListener;
+import gate.util.GateRuntimeException;
+
+/**
+ * A FeatureMap holding its keys and values in two parallel arrays, sized
+ * exactly for the JSON object it was built from.  Small maps are searched
+ * linearly; once a map holds more than {@link #HASH_THRESHOLD} entries a
+ * compact open-addressing index (linear probing over a char array of
+ * positions) is added on top of the same arrays, so lookups stay constant
+ * time without allocating a node per entry.
+ *
+ * Unlike the default GATE FeatureMap, iteration follows insertion order, so
+ * features appear in the same order as the properties of the original JSON
+ * object.
+ */
+public class CompactFeatureMap implements FeatureMap, Serializable, Cloneable {
+
+  private static final long serialVersionUID = 2370938467624526734L;
+
+  /**
+   * Maps with more entries than this are indexed by hash rather than
+   * searched linearly.
+   */
+  public static final int HASH_THRESHOLD = 8;
+
+  /**
+   * Largest size that can be indexed by the char array; bigger maps simply
+   * fall back to linear search.
+   */
+  private static final int MAX_INDEXED = Character.MAX_VALUE - 1;
+
+  private static final Object[] EMPTY = new Object[0];
+
+  private Object[] keys;
+
+  private Object[] values;
+
+  private int size;
+
+  /**
+   * Open-addressing index holding (position + 1) of each key, or 0 for an
+   * empty slot.  Rebuilt rather than maintained on removal.
+   */
+  private transient char[] index;
+
+  private transient Vector<FeatureMapListener> mapListeners;
+
+  public CompactFeatureMap() {
+    this(0);
+  }
+
+  /**
+   * Create a map with room for exactly the given number of entries.
+   */
+  public CompactFeatureMap(int expectedSize) {
+    if(expectedSize <= 0) {
+      keys = EMPTY;
+      values = EMPTY;
+    } else {
+      keys = new Object[expectedSize];
+      values = new Object[expectedSize];
+    }
+  }
+
+  public CompactFeatureMap(Map<?, ?> map) {
+    this(map.size());
+    for(Map.Entry<?, ?> e : map.entrySet()) {
+      putInternal(e.getKey(), e.getValue());
+    }
+  }
+
+  private static int hash(Object key) {
+    int h = key == null ? 0 : key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private int position(Object key) {
+    if(index != null) {
+      int mask = index.length - 1;
+      int slot = hash(key) & mask;
+      int pos;
+      while((pos = index[slot]) != 0) {
+        Object k = keys[pos - 1];
+        if(k == key || (k != null && k.equals(key))) return pos - 1;
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+    // identity first, as keys are usually canonical instances
+    for(int i = 0; i < size; i++) {
+      if(keys[i] == key) return i;
+    }
+    if(key == null) return -1;
+    for(int i = 0; i < size; i++) {
+      if(key.equals(keys[i])) return i;
+    }
+    return -1;
+  }
+
+  private void rebuildIndex() {
+    if(size <= HASH_THRESHOLD || size > MAX_INDEXED) {
+      index = null;
+      return;
+    }
+    // keep the load factor at or below 0.75
+    int capacity = Integer.highestOneBit(size + (size / 3)) << 1;
+    char[] newIndex = new char[capacity];
+    int mask = capacity - 1;
+    for(int i = 0; i < size; i++) {
+      int slot = hash(keys[i]) & mask;
+      while(newIndex[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      newIndex[slot] = (char)(i + 1);
+    }
+    index = newIndex;
+  }
+
+  private void addToIndex(int pos) {
+    if(index == null || (size + (size / 3)) >= index.length) {
+      rebuildIndex();
+      return;
+    }
+    int mask = index.length - 1;
+    int slot = hash(keys[pos]) & mask;
+    while(index[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    index[slot] = (char)(pos + 1);
+  }
+
+  private Object putInternal(Object key, Object value) {
+    int pos = position(key);
+    if(pos >= 0) {
+      Object old = values[pos];
+      values[pos] = value;
+      return old;
+    }
+    if(size == keys.length) {
+      int newCapacity = size < 2 ? size + 1 : size + (size >> 1);
+      keys = Arrays.copyOf(keys, newCapacity);
+      values = Arrays.copyOf(values, newCapacity);
+    }
+    keys[size] = key;
+    values[size] = value;
+    size++;
+    if(size > HASH_THRESHOLD) addToIndex(size - 1);
+    return null;
+  }
+
+  private Object removeAt(int pos) {
+    Object old = values[pos];
+    int tail = size - pos - 1;
+    if(tail > 0) {
+      System.arraycopy(keys, pos + 1, keys, pos, tail);
+      System.arraycopy(values, pos + 1, values, pos, tail);
+    }
+    size--;
+    keys[size] = null;
+    values[size] = null;
+    if(index != null) rebuildIndex();
+    return old;
+  }
+
+  /**
+   * Release any spare capacity left over after removals or incremental
+   * additions.
+   */
+  public void trimToSize() {
+    if(size < keys.length) {
+      keys = size == 0 ? EMPTY : Arrays.copyOf(keys, size);
+      values = size == 0 ? EMPTY : Arrays.copyOf(values, size);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return position(key) >= 0;
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    for(int i = 0; i < size; i++) {
+      if(Objects.equals(value, values[i])) return true;
+    }
+    return false;
+  }
+
+  @Override
+  public Object get(Object key) {
+    int pos = position(key);
+    return pos < 0 ? null : values[pos];
+  }
+
+  @Override
+  public Object put(Object key, Object value) {
+    Object result = putInternal(key, value);
+    fireMapUpdatedEvent();
+    return result;
+  }
+
+  @Override
+  public void putAll(Map<? extends Object, ? extends Object> m) {
+    if(size + m.size() > keys.length) {
+      int newCapacity = size + m.size();
+      keys = Arrays.copyOf(keys, newCapacity);
+      values = Arrays.copyOf(values, newCapacity);
+    }
+    for(Map.Entry<? extends Object, ? extends Object> e : m.entrySet()) {
+      putInternal(e.getKey(), e.getValue());
+    }
+    fireMapUpdatedEvent();
+  }
+
+  @Override
+  public Object remove(Object key) {
+    int pos = position(key);
+    Object result = pos < 0 ? null : removeAt(pos);
+    fireMapUpdatedEvent();
+    return result;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(keys, 0, size, null);
+    Arrays.fill(values, 0, size, null);
+    size = 0;
+    index = null;
+    fireMapUpdatedEvent();
+  }
+
+  @Override
+  public Set<Object> keySet() {
+    return new AbstractSet<Object>() {
+      @Override
+      public Iterator<Object> iterator() {
+        final Iterator<Map.Entry<Object, Object>> it = new EntryIterator();
+        return new Iterator<Object>() {
+          @Override
+          public boolean hasNext() {
+            return it.hasNext();
+          }
+
+          @Override
+          public Object next() {
+            return it.next().getKey();
+          }
+
+          @Override
+          public void remove() {
+            it.remove();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return containsKey(o);
+      }
+    };
+  }
+
+  @Override
+  public Collection<Object> values() {
+    return new AbstractCollection<Object>() {
+      @Override
+      public Iterator<Object> iterator() {
+        final Iterator<Map.Entry<Object, Object>> it = new EntryIterator();
+        return new Iterator<Object>() {
+          @Override
+          public boolean hasNext() {
+            return it.hasNext();
+          }
+
+          @Override
+          public Object next() {
+            return it.next().getValue();
+          }
+
+          @Override
+          public void remove() {
+            it.remove();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  @Override
+  public Set<Map.Entry<Object, Object>> entrySet() {
+    return new AbstractSet<Map.Entry<Object, Object>>() {
+      @Override
+      public Iterator<Map.Entry<Object, Object>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        if(!(o instanceof Map.Entry)) return false;
+        Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+        int pos = position(e.getKey());
+        return pos >= 0 && Objects.equals(values[pos], e.getValue());
+      }
+
+      @Override
+      public void clear() {
+        CompactFeatureMap.this.clear();
+      }
+    };
+  }
+
+  private class EntryIterator implements Iterator<Map.Entry<Object, Object>> {
+    private int next = 0;
+
+    private int last = -1;
+
+    private int expectedSize = size;
+
+    @Override
+    public boolean hasNext() {
+      return next < size;
+    }
+
+    @Override
+    public Map.Entry<Object, Object> next() {
+      if(size != expectedSize) {
+        throw new ConcurrentModificationException();
+      }
+      if(next >= size) throw new NoSuchElementException();
+      last = next++;
+      return new Entry(last);
+    }
+
+    @Override
+    public void remove() {
+      if(last < 0) throw new IllegalStateException();
+      if(size != expectedSize) {
+        throw new ConcurrentModificationException();
+      }
+      removeAt(last);
+      next = last;
+      last = -1;
+      expectedSize = size;
+      fireMapUpdatedEvent();
+    }
+  }
+
+  private class Entry implements Map.Entry<Object, Object> {
+    private final int pos;
+
+    private final Object key;
+
+    Entry(int pos) {
+      this.pos = pos;
+      this.key = keys[pos];
+    }
+
+    @Override
+    public Object getKey() {
+      return key;
+    }
+
+    @Override
+    public Object getValue() {
+      return pos < size && keys[pos] == key ? values[pos] : get(key);
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      int p = pos < size && keys[pos] == key ? pos : position(key);
+      if(p < 0) throw new IllegalStateException("entry no longer in map");
+      Object old = values[p];
+      values[p] = value;
+      fireMapUpdatedEvent();
+      return old;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if(!(o instanceof Map.Entry)) return false;
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+      return Objects.equals(key, e.getKey())
+          && Objects.equals(getValue(), e.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(key) ^ Objects.hashCode(getValue());
+    }
+
+    @Override
+    public String toString() {
+      return key + "=" + getValue();
+    }
+  }
+
+  @Override
+  public boolean subsumes(FeatureMap aFeatureMap) {
+    if(aFeatureMap == null) return true;
+    if(size < aFeatureMap.size()) return false;
+    for(Map.Entry<Object, Object> e : aFeatureMap.entrySet()) {
+      int pos = position(e.getKey());
+      if(pos < 0) return false;
+      if(!Objects.equals(values[pos], e.getValue())) return false;
+    }
+    return true;
+  }
+
+  @Override
+  public boolean subsumes(Ontology ontologyLR, FeatureMap aFeatureMap) {
+    if(ontologyLR == null) return subsumes(aFeatureMap);
+    if(aFeatureMap == null) return true;
+    if(size < aFeatureMap.size()) return false;
+    for(Map.Entry<Object, Object> e : aFeatureMap.entrySet()) {
+      int pos = position(e.getKey());
+      if(pos < 0) return false;
+      Object valueFromThis = values[pos];
+      Object valueFromOther = e.getValue();
+      if(valueFromThis == null || valueFromOther == null) {
+        if(valueFromThis != valueFromOther) return false;
+        continue;
+      }
+      if("class".equals(e.getKey())) {
+        // same semantics as SimpleFeatureMapImpl: the class feature is
+        // matched by ontology subsumption, and decides the result
+        try {
+          OClass superClass =
+              getClassForURIOrName(ontologyLR, valueFromOther.toString());
+          OClass subClass =
+              getClassForURIOrName(ontologyLR, valueFromThis.toString());
+          if(superClass == null || subClass == null) return false;
+          return subClass.equals(superClass) || subClass.isSubClassOf(
+              superClass, OConstants.Closure.TRANSITIVE_CLOSURE);
+        } catch(Exception ex) {
+          throw new GateRuntimeException(ex);
+        }
+      }
+      if(!valueFromThis.equals(valueFromOther)) return false;
+    }
+    return true;
+  }
+
+  private OClass getClassForURIOrName(Ontology ontologyLR, String name) {
+    OClass cls = null;
+    try {
+      cls = ontologyLR.getOClass(ontologyLR.createOURI(name));
+    } catch(Exception e) {
+      // not a URI, try it as a name
+    }
+    if(cls == null) {
+      try {
+        cls = ontologyLR.getOClass(ontologyLR.createOURIForName(name));
+      } catch(Exception e) {
+        // not found either way
+      }
+    }
+    return cls;
+  }
+
+  @Override
+  public boolean subsumes(FeatureMap aFeatureMap,
+      Set<? extends Object> aFeatureNamesSet) {
+    if(aFeatureNamesSet == null) return subsumes(aFeatureMap);
+    if(aFeatureMap == null || aFeatureNamesSet.isEmpty()) return true;
+    for(Map.Entry<Object, Object> e : aFeatureMap.entrySet()) {
+      if(!aFeatureNamesSet.contains(e.getKey())) continue;
+      if(!Objects.equals(get(e.getKey()), e.getValue())) return false;
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized void removeFeatureMapListener(FeatureMapListener l) {
+    if(mapListeners != null && mapListeners.contains(l)) {
+      @SuppressWarnings("unchecked")
+      Vector<FeatureMapListener> v =
+          (Vector<FeatureMapListener>)mapListeners.clone();
+      v.removeElement(l);
+      mapListeners = v;
+    }
+  }
+
+  @Override
+  public synchronized void addFeatureMapListener(FeatureMapListener l) {
+    @SuppressWarnings("unchecked")
+    Vector<FeatureMapListener> v = mapListeners == null
+        ? new Vector<FeatureMapListener>(2)
+        : (Vector<FeatureMapListener>)mapListeners.clone();
+    if(!v.contains(l)) {
+      v.addElement(l);
+      mapListeners = v;
+    }
+  }
+
+  protected void fireMapUpdatedEvent() {
+    Vector<FeatureMapListener> listeners = mapListeners;
+    if(listeners != null) {
+      int count = listeners.size();
+      for(int i = 0; i < count; i++) {
+        listeners.elementAt(i).featureMapUpdated();
+      }
+    }
+  }
+
+  @Override
+  public Object clone() {
+    CompactFeatureMap copy;
+    try {
+      copy = (CompactFeatureMap)super.clone();
+    } catch(CloneNotSupportedException e) {
+      throw new InternalError(e.toString());
+    }
+    copy.keys = keys.clone();
+    copy.values = values.clone();
+    copy.index = index == null ? null : index.clone();
+    copy.mapListeners = null;
+    return copy;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if(o == this) return true;
+    if(!(o instanceof Map)) return false;
+    Map<?, ?> m = (Map<?, ?>)o;
+    if(m.size() != size) return false;
+    try {
+      for(int i = 0; i < size; i++) {
+        Object value = values[i];
+        if(value == null) {
+          if(m.get(keys[i]) != null || !m.containsKey(keys[i])) return false;
+        } else if(!value.equals(m.get(keys[i]))) {
+          return false;
+        }
+      }
+    } catch(ClassCastException | NullPointerException e) {
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 0;
+    for(int i = 0; i < size; i++) {
+      h += Objects.hashCode(keys[i]) ^ Objects.hashCode(values[i]);
+    }
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buf = new StringBuilder("{");
+    for(int i = 0; i < size; i++) {
+      if(i > 0) buf.append(", ");
+      buf.append(keys[i] == this ? "(this Map)" : keys[i]).append('=')
+          .append(values[i] == this ? "(this Map)" : values[i]);
+    }
+    return buf.append('}').toString();
+  }
+
+  private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    rebuildIndex();
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One GATE document written out as JSON by the exporter.
+ */
+@Name("gate.corpora.json.DocumentExport")
+@Label("JSON Document Export")
+@Category({"GATE", "JSON"})
+@Description("A GATE document exported as JSON")
+@StackTrace(false)
+class DocumentExportEvent extends Event {
+
+  @Label("Document")
+  String document;
+
+  @Label("Characters")
+  @Description("Length of the document content")
+  long characters;
+
+  @Label("Records")
+  @Description("Number of JSON objects written")
+  int records;
+
+  @Label("Prepare Time")
+  @Description("Time spent selecting and sorting annotations")
+  @Timespan
+  long prepareTime;
+
+  @Label("Write Time")
+  @Timespan
+  long writeTime;
+
+  static Object start() {
+    DocumentExportEvent event = new DocumentExportEvent();
+    if(!event.isEnabled()) return null;
+    event.begin();
+    return event;
+  }
+
+  static void finish(Object started, String document, long characters,
+      int records, long prepareNanos, long writeNanos) {
+    DocumentExportEvent event = (DocumentExportEvent)started;
+    event.end();
+    if(event.shouldCommit()) {
+      event.document = document;
+      event.characters = characters;
+      event.records = records;
+      event.prepareTime = prepareNanos;
+      event.writeTime = writeNanos;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One document unpacked by the JSON document format.
+ */
+@Name("gate.corpora.json.DocumentParse")
+@Label("JSON Document Parse")
+@Category({"GATE", "JSON"})
+@Description("A GATE document unpacked from JSON")
+@StackTrace(false)
+class DocumentParseEvent extends Event {
+
+  @Label("Document")
+  String document;
+
+  @Label("Characters")
+  @Description("Length of the JSON content")
+  long characters;
+
+  @Label("Records")
+  int records;
+
+  @Label("Annotations")
+  long annotations;
+
+  @Label("Parse Time")
+  @Timespan
+  long parseTime;
+
+  @Label("Concatenate Time")
+  @Timespan
+  long concatenateTime;
+
+  @Label("Annotate Time")
+  @Timespan
+  long annotateTime;
+
+  static Object start() {
+    DocumentParseEvent event = new DocumentParseEvent();
+    if(!event.isEnabled()) return null;
+    event.begin();
+    return event;
+  }
+
+  static void finish(Object started, String document, long characters,
+      int records, long annotations, long parseNanos, long concatenateNanos,
+      long annotateNanos) {
+    DocumentParseEvent event = (DocumentParseEvent)started;
+    event.end();
+    if(event.shouldCommit()) {
+      event.document = document;
+      event.characters = characters;
+      event.records = records;
+      event.annotations = annotations;
+      event.parseTime = parseNanos;
+      event.concatenateTime = concatenateNanos;
+      event.annotateTime = annotateNanos;
+      event.commit();
+    }
+  }
+}
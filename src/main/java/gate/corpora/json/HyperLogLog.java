@@ -0,0 +1,84 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+/**
+ * A HyperLogLog cardinality estimator over 64-bit hashes, with 2<sup>12</sup>
+ * one-byte registers, giving a standard error of about 1.6% in 4KB.
+ * Callers supply well mixed hashes; {@link #hash(char[], int, int)} provides
+ * one for character data.
+ */
+class HyperLogLog {
+
+  private static final int PRECISION = 12;
+
+  private static final int REGISTERS = 1 << PRECISION;
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+  private final byte[] registers = new byte[REGISTERS];
+
+  void add(long hash) {
+    int index = (int)(hash >>> (64 - PRECISION));
+    // position of the first set bit in the remaining bits, counting from 1
+    int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+    if(rank > registers[index]) registers[index] = (byte)rank;
+  }
+
+  long estimate() {
+    double sum = 0;
+    int zeros = 0;
+    for(byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if(register == 0) zeros++;
+    }
+    double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+    double estimate = alpha * REGISTERS * REGISTERS / sum;
+    if(estimate <= 2.5 * REGISTERS && zeros > 0) {
+      // linear counting is far more accurate for small sets
+      estimate = REGISTERS * Math.log((double)REGISTERS / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /**
+   * A 64-bit hash of a run of characters (FNV-1a followed by a finalising
+   * mix, so the high bits used for the register index are well spread).
+   */
+  static long hash(char[] chars, int offset, int length) {
+    long hash = FNV_OFFSET_BASIS;
+    for(int i = offset; i < offset + length; i++) {
+      hash = fnv(hash, chars[i]);
+    }
+    return mix(hash);
+  }
+
+  /**
+   * The same hash of a whole string.  {@link ShardSelector} relies on this
+   * never changing, as it decides which shard every record belongs to.
+   */
+  static long hash(CharSequence chars) {
+    long hash = FNV_OFFSET_BASIS;
+    for(int i = 0; i < chars.length(); i++) {
+      hash = fnv(hash, chars.charAt(i));
+    }
+    return mix(hash);
+  }
+
+  private static long fnv(long hash, char c) {
+    return (hash ^ c) * 0x100000001b3L;
+  }
+
+  static long mix(long hash) {
+    hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+    hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return hash ^ (hash >>> 33);
+  }
+}
@@ -9,22 +9,28 @@
  */
 package gate.corpora.json;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import gate.Factory;
 import gate.FeatureMap;
-import gate.corpora.RepositioningInfo;
 
 
 public class JSONDocument {
+  private static final String INDICES_ATTRIBUTE = "indices";
+
+  private static final String STARTS_ATTRIBUTE = "starts";
+
+  private static final String ENDS_ATTRIBUTE = "ends";
+
+  private static final String FEATURES_ATTRIBUTE = "features";
+
   private String string;
 
   private Set<PreAnnotation> annotations;
@@ -47,6 +53,34 @@ public class JSONDocument {
    * the annotation feature map contains all the other JSON data, recursively.
    */
   protected JSONDocument(JsonNode json, String textPath, boolean handleEntities) {
+    this(json, textPath, handleEntities, null);
+  }
+
+  /**
+   * As above, but sharing field names and repeated string values through
+   * the given canonicaliser (which may be null).
+   */
+  protected JSONDocument(JsonNode json, String textPath, boolean handleEntities,
+      StringCanonicaliser canonicaliser) {
+    this(json, textPath, handleEntities, canonicaliser, false);
+  }
+
+  /**
+   * As above, optionally deferring the conversion of each entity's
+   * properties into features until the features are first accessed.
+   */
+  protected JSONDocument(JsonNode json, String textPath, boolean handleEntities,
+      StringCanonicaliser canonicaliser, boolean lazyEntityFeatures) {
+    this(json, textPath, handleEntities, canonicaliser, lazyEntityFeatures,
+        OffsetUnit.CODEPOINTS);
+  }
+
+  /**
+   * As above, with the "indices" of the entities counted in the given units.
+   */
+  protected JSONDocument(JsonNode json, String textPath, boolean handleEntities,
+      StringCanonicaliser canonicaliser, boolean lazyEntityFeatures,
+      OffsetUnit offsetUnits) {
     string = "";
     annotations = new HashSet<PreAnnotation>();
     
@@ -58,85 +92,96 @@ public class JSONDocument {
       current = json.get(path[i]);
     }
     
-    RepositioningInfo repos = new RepositioningInfo();
-    string = unescape(((ObjectNode)current).remove(path[path.length-1]).asText(), repos);
-    if(handleEntities) processEntities(current, 0L, repos);
+    OffsetConverter.Builder offsets = ScratchBuffers.get().offsetsBuilder();
+    long startTime = System.nanoTime();
+    string = unescape(((ObjectNode)current).remove(path[path.length-1]).asText(),
+        offsetUnits, offsets);
+    JsonMetrics.get().unescaped(System.nanoTime() - startTime);
+    if(handleEntities) {
+      processEntities(current, 0L, offsets.build(), canonicaliser, lazyEntityFeatures);
+    }
     
     Iterator<String> keys = json.fieldNames();
-    FeatureMap features = Factory.newFeatureMap();
+    FeatureMap features = new CompactFeatureMap(json.size());
     
     while (keys.hasNext()) {
       String key = keys.next();
-      features.put(key, JSONUtils.process(json.get(key)));
+      Object value = JSONUtils.process(json.get(key), key, canonicaliser);
+      if(canonicaliser != null) key = canonicaliser.canonicaliseKey(key);
+      features.put(key, value);
     }
     
     annotations.add(new PreAnnotation(0L, string.length(), JSONUtils.ANNOTATION_TYPE, features));
   }
   
   /**
-   * Characters to account for in unescaping - HTML-encoded ampersand and angle
-   * brackets, and supplementary characters (which don't need "unescaping" but do
-   * need to be accounted for in the repos info).
-   */
-  private static Pattern UNESCAPE_PATTERN = Pattern.compile("&(?:amp|lt|gt);|[\\x{" +
-    Integer.toHexString(Character.MIN_SUPPLEMENTARY_CODE_POINT)+ "}-\\x{" +
-    Integer.toHexString(Character.MAX_CODE_POINT) + "}]");
-  
-  /**
-   * Un-escape &amp;amp;, &amp;gt; and &amp;lt; in the given string, populating
-   * the supplied {@link RepositioningInfo} to describe the offset changes.  Also
-   * record the position of any Unicode supplementary characters, as Twitter's
-   * entities format counts in characters (so a supplementary is 1) whereas GATE
-   * annotations count in Java <code>char</code> values (UTF-16 code units, so
-   * a supplementary counts as two).
+   * Un-escape &amp;amp;, &amp;gt; and &amp;lt; in the given string, recording
+   * in the supplied builder how offsets in the original string (counted in
+   * the given units) map to offsets in the unescaped string (counted in
+   * UTF-16 code units, like GATE annotation offsets).  With Twitter's
+   * entities format the original offsets count in characters (so a
+   * supplementary is 1) whereas GATE counts in Java <code>char</code>
+   * values (so a supplementary counts as two).
    * @param str string, possibly including escaped ampersands or angle brackets
-   * @param repos {@link RepositioningInfo} to hold offset changes
+   * @param units the units in which offsets into <code>str</code> are counted
+   * @param offsets builder to hold the offset changes
    * @return the unescaped string
    */
-  private String unescape(String str, RepositioningInfo repos) {
-    StringBuffer buf = new StringBuffer();
+  private String unescape(String str, OffsetUnit units, OffsetConverter.Builder offsets) {
+    if(units == OffsetUnit.UTF16 && str.indexOf('&') < 0) {
+      // nothing to unescape and the offsets already match, no need to
+      // look at the characters at all
+      return str;
+    }
+    StringBuilder buf = null;
+    int len = str.length();
     int origOffset = 0;
-    int extractedOffset = 0;
-    Matcher mat = UNESCAPE_PATTERN.matcher(str);
-    while(mat.find()) {
-      if(mat.start() != origOffset) {
-        // repositioning record for the span from end of previous match to start of this one
-        int nonMatchLen = mat.start() - origOffset;
-        repos.addPositionInfo(origOffset, nonMatchLen, extractedOffset, nonMatchLen);
-        origOffset += nonMatchLen;
-        extractedOffset += nonMatchLen;
-      }      
-      
-      // in most cases the original length is the number of code units the pattern matched
-      int origLen = mat.end() - mat.start();
-      // and the extracted result is one code unit
+    int i = 0;
+    while(i < len) {
+      char c = str.charAt(i);
+      if(c == '&') {
+        char replace = 0;
+        int origLen = 0;
+        if(str.startsWith("&amp;", i)) {
+          replace = '&';
+          origLen = 5;
+        } else if(str.startsWith("&lt;", i)) {
+          replace = '<';
+          origLen = 4;
+        } else if(str.startsWith("&gt;", i)) {
+          replace = '>';
+          origLen = 4;
+        }
+        if(origLen > 0) {
+          if(buf == null) {
+            buf = ScratchBuffers.get().textBuilder();
+            buf.append(str, 0, i);
+          }
+          // escape sequences are ASCII, so the same length in any units
+          offsets.addEvent(origOffset, origLen, buf.length(), 1);
+          buf.append(replace);
+          origOffset += origLen;
+          i += origLen;
+          continue;
+        }
+      }
       int extractedLen = 1;
-      String replace = "?";
-      switch(mat.group()) {
-        case "&amp;": replace = "&"; break;
-        case "&gt;": replace = ">"; break;
-        case "&lt;": replace = "<"; break;
-        default:
-          // but in the case of supplementary characters, the original length
-          // (in *characters*) is 1 but the extracted length (in code units) is 2
-          replace = mat.group();
-          origLen = 1;
-          extractedLen = 2;
+      int codePoint = c;
+      if(Character.isHighSurrogate(c) && i + 1 < len
+          && Character.isLowSurrogate(str.charAt(i + 1))) {
+        codePoint = Character.toCodePoint(c, str.charAt(i + 1));
+        extractedLen = 2;
       }
-      mat.appendReplacement(buf, replace);
-      // repositioning record covering this match
-      repos.addPositionInfo(origOffset, origLen, extractedOffset, extractedLen);
-
+      int origLen = units.length(codePoint);
+      if(origLen != extractedLen) {
+        offsets.addEvent(origOffset, origLen,
+            buf == null ? i : buf.length(), extractedLen);
+      }
+      if(buf != null) buf.append(str, i, i + extractedLen);
       origOffset += origLen;
-      extractedOffset += extractedLen;
-    }
-    int tailLen = str.length() - origOffset;
-    if(tailLen > 0) {
-      // repositioning record covering everything after the last match
-      repos.addPositionInfo(origOffset, tailLen + 1, extractedOffset, tailLen + 1);
+      i += extractedLen;
     }
-    mat.appendTail(buf);
-    return buf.toString();
+    return buf == null ? str : buf.toString();
   }
 
   /**
@@ -146,8 +191,13 @@ public class JSONDocument {
    * @param json the Tweet json object
    * @param startOffset offset correction if the text is not the first of
    *         the content keys.
+   * @param offsets converts entity indices to offsets in the unescaped text
+   * @param canonicaliser table used to share repeated strings, may be null
+   * @param lazyFeatures should the entity features be converted only when
+   *         first accessed
    */
-  private void processEntities(JsonNode json, long startOffset, RepositioningInfo repos) {
+  private void processEntities(JsonNode json, long startOffset, OffsetConverter offsets,
+      StringCanonicaliser canonicaliser, boolean lazyFeatures) {
     JsonNode entitiesNode = ((ObjectNode)json).remove(JSONUtils.ENTITIES_ATTRIBUTE);
     if(entitiesNode == null || !entitiesNode.isObject()) {
       // no entities, nothing to do
@@ -157,35 +207,92 @@ public class JSONDocument {
     while(entityTypes.hasNext()) {
       String entityType = entityTypes.next();
       JsonNode entitiesOfType = entitiesNode.get(entityType);
-      if(entitiesOfType != null && entitiesOfType.isArray() && entitiesOfType.size() > 0) {
-        // if the entityType is X:Y then assume X is the AS name and Y is the actual type
-        String[] setAndType = entityType.split(":", 2);
+      // if the entityType is X:Y then assume X is the AS name and Y is the actual type
+      String[] setAndType = entityType.split(":", 2);
+      if(entitiesOfType != null && entitiesOfType.isObject()) {
+        processColumns(entitiesOfType, setAndType, startOffset, offsets, canonicaliser);
+      } else if(entitiesOfType != null && entitiesOfType.isArray() && entitiesOfType.size() > 0) {
         Iterator<JsonNode> it = entitiesOfType.elements();
         while(it.hasNext()) {
           JsonNode entity = it.next();
-          if(entity.isObject()) {
-            // process is guaranteed to return a FeatureMap given an object
-            FeatureMap features = (FeatureMap)JSONUtils.process(entity);
-            Object indices = features.get("indices");
-            if(indices != null && indices instanceof List<?>) {
-              List<?> indicesList = (List<?>)indices;
-              if(indicesList.get(0) instanceof Number && indicesList.get(1) instanceof Number) {
-                // finally we know we have a valid entity
-                features.remove("indices");
-                long annStart = repos.getExtractedPos(startOffset + ((Number)indicesList.get(0)).longValue());
-                long annEnd = repos.getExtractedPos(startOffset + ((Number)indicesList.get(1)).longValue());
-                if(setAndType.length == 2) {
-                  // explicit annotation set name
-                  annotations.add(new PreAnnotation(annStart, annEnd, setAndType[0], setAndType[1], features));
-                } else {
-                  annotations.add(new PreAnnotation(annStart, annEnd, entityType, features));
-                }
-              }
-            }
+          if(!entity.isObject()) continue;
+          // read the offsets straight from the JSON rather than converting
+          // the whole entity to features and digging them out again
+          JsonNode indices = entity.get(INDICES_ATTRIBUTE);
+          if(indices == null || !indices.isArray() || indices.size() < 2) continue;
+          JsonNode start = indices.get(0);
+          JsonNode end = indices.get(1);
+          if(!start.isNumber() || !end.isNumber()) continue;
+
+          // finally we know we have a valid entity
+          long annStart = offsets.convert(startOffset + start.longValue());
+          long annEnd = offsets.convert(startOffset + end.longValue());
+          FeatureMap features = lazyFeatures
+              ? new LazyFeatureMap(entity, INDICES_ATTRIBUTE, canonicaliser)
+              : JSONUtils.processFields(entity, INDICES_ATTRIBUTE, canonicaliser);
+          if(setAndType.length == 2) {
+            // explicit annotation set name
+            annotations.add(new PreAnnotation(annStart, annEnd, setAndType[0], setAndType[1], features));
+          } else {
+            annotations.add(new PreAnnotation(annStart, annEnd, entityType, features));
           }
         }
       }
     }
   }
+
+  /**
+   * Create the annotations of one type from the columnar layout, in which
+   * the entities are an object of parallel arrays rather than an array of
+   * objects:
+   * <pre>
+   * {"starts":[0,4], "ends":[3,9], "features":{"category":["DT","NN"]}}
+   * </pre>
+   * Each feature column holds one value per annotation, with null for an
+   * annotation that lacks the feature.  Malformed columns are ignored, as
+   * malformed entities are in the usual layout.
+   */
+  private void processColumns(JsonNode columns, String[] setAndType,
+      long startOffset, OffsetConverter offsets, StringCanonicaliser canonicaliser) {
+    JsonNode starts = columns.get(STARTS_ATTRIBUTE);
+    JsonNode ends = columns.get(ENDS_ATTRIBUTE);
+    if(starts == null || ends == null || !starts.isArray() || !ends.isArray()) return;
+    int count = Math.min(starts.size(), ends.size());
+
+    List<String> names = new ArrayList<String>();
+    List<JsonNode> values = new ArrayList<JsonNode>();
+    JsonNode featureColumns = columns.get(FEATURES_ATTRIBUTE);
+    if(featureColumns != null && featureColumns.isObject()) {
+      Iterator<Map.Entry<String, JsonNode>> fields = featureColumns.fields();
+      while(fields.hasNext()) {
+        Map.Entry<String, JsonNode> column = fields.next();
+        if(!column.getValue().isArray()) continue;
+        names.add(column.getKey());
+        values.add(column.getValue());
+      }
+    }
+
+    for(int i = 0; i < count; i++) {
+      JsonNode start = starts.get(i);
+      JsonNode end = ends.get(i);
+      if(!start.isNumber() || !end.isNumber()) continue;
+      CompactFeatureMap features = new CompactFeatureMap(names.size());
+      for(int f = 0; f < names.size(); f++) {
+        JsonNode value = values.get(f).get(i);
+        if(value == null || value.isNull()) continue;
+        String name = names.get(f);
+        Object converted = JSONUtils.process(value, name, canonicaliser);
+        features.put(canonicaliser == null ? name : canonicaliser.canonicaliseKey(name),
+            converted);
+      }
+      long annStart = offsets.convert(startOffset + start.longValue());
+      long annEnd = offsets.convert(startOffset + end.longValue());
+      if(setAndType.length == 2) {
+        annotations.add(new PreAnnotation(annStart, annEnd, setAndType[0], setAndType[1], features));
+      } else {
+        annotations.add(new PreAnnotation(annStart, annEnd, setAndType[0], features));
+      }
+    }
+  }
   
 }
@@ -9,6 +9,8 @@
  */
 package gate.corpora.json;
 
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
@@ -22,7 +24,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-public class JSONDocumentStreamIterator implements Iterator<JSONDocument> {
+public class JSONDocumentStreamIterator implements Iterator<JSONDocument>, Closeable {
 
   private ObjectMapper objectMapper;
 
@@ -36,6 +38,22 @@ public class JSONDocumentStreamIterator implements Iterator<JSONDocument> {
 
   private String textPath;
 
+  private StringCanonicaliser canonicaliser;
+
+  private boolean lazyEntityFeatures = false;
+
+  private OffsetUnit offsetUnits = OffsetUnit.CODEPOINTS;
+
+  /**
+   * The length of the string being parsed, 0 for a stream.
+   */
+  private final long characters;
+
+  /**
+   * Counts the bytes taken from the stream being parsed, null for a string.
+   */
+  private final CountingInputStream counter;
+
   public JSONDocumentStreamIterator(String json, String textPath)
       throws JsonParseException, IOException {
     this(json, textPath, true);
@@ -44,9 +62,11 @@ public class JSONDocumentStreamIterator implements Iterator<JSONDocument> {
   public JSONDocumentStreamIterator(String json, String textPath,
       boolean handleEntities) throws JsonParseException, IOException {
     this.handleEntities = handleEntities;
-    objectMapper = new ObjectMapper();
+    objectMapper = JSONUtils.MAPPER;
     jsonParser = objectMapper.getFactory().createParser(json);
     this.textPath = textPath;
+    this.characters = json.length();
+    this.counter = null;
     init();
   }
 
@@ -58,21 +78,25 @@ public class JSONDocumentStreamIterator implements Iterator<JSONDocument> {
   public JSONDocumentStreamIterator(InputStream input, String textPath,
       boolean gzip, boolean handleEntities)
       throws JsonParseException, IOException {
-    this.handleEntities = handleEntities;
-    this.textPath = textPath;
-
-    InputStream workingInput;
-
     // Following borrowed from gcp JSONStreamingInputHandler
-    objectMapper = new ObjectMapper();
-
-    if(gzip) {
-      workingInput = new GZIPInputStream(input);
-    } else {
-      workingInput = input;
-    }
+    this(gzip ? new GZIPInputStream(input) : input, textPath, handleEntities,
+        JSONUtils.MAPPER);
+  }
 
-    jsonParser = objectMapper.getFactory().createParser(workingInput)
+  /**
+   * Read the objects from a stream with the given mapper, whose factory
+   * determines the encoding: plain JSON, or a binary encoding of the same
+   * data model such as Smile or CBOR (see {@link BinaryJson}).
+   */
+  public JSONDocumentStreamIterator(InputStream input, String textPath,
+      boolean handleEntities, ObjectMapper objectMapper)
+      throws JsonParseException, IOException {
+    this.handleEntities = handleEntities;
+    this.textPath = textPath;
+    this.objectMapper = objectMapper;
+    this.characters = 0;
+    this.counter = new CountingInputStream(input);
+    jsonParser = objectMapper.getFactory().createParser(counter)
         .enable(Feature.AUTO_CLOSE_SOURCE);
     init();
   }
@@ -88,6 +112,47 @@ public class JSONDocumentStreamIterator implements Iterator<JSONDocument> {
     iterator = objectMapper.readValues(jsonParser, JsonNode.class);
   }
 
+  /**
+   * Share field names and repeated string values of the documents returned
+   * by this iterator through the given canonicaliser.
+   *
+   * @param canonicaliser the table to use, or null to disable
+   *          canonicalisation
+   */
+  public void setCanonicaliser(StringCanonicaliser canonicaliser) {
+    this.canonicaliser = canonicaliser;
+  }
+
+  public StringCanonicaliser getCanonicaliser() {
+    return canonicaliser;
+  }
+
+  /**
+   * Should the features of entity annotations be converted from JSON only
+   * when they are first accessed?  This saves time when most entity
+   * features are never read, at the cost of keeping the parsed JSON of each
+   * entity in memory until they are.
+   */
+  public void setLazyEntityFeatures(boolean lazyEntityFeatures) {
+    this.lazyEntityFeatures = lazyEntityFeatures;
+  }
+
+  public boolean isLazyEntityFeatures() {
+    return lazyEntityFeatures;
+  }
+
+  /**
+   * Set the units in which the "indices" of entities are counted, which
+   * defaults to the code points used by Twitter.
+   */
+  public void setOffsetUnits(OffsetUnit offsetUnits) {
+    this.offsetUnits = offsetUnits == null ? OffsetUnit.CODEPOINTS : offsetUnits;
+  }
+
+  public OffsetUnit getOffsetUnits() {
+    return offsetUnits;
+  }
+
   @Override
   public boolean hasNext() {
     return this.iterator.hasNext();
@@ -98,8 +163,14 @@ public class JSONDocumentStreamIterator implements Iterator<JSONDocument> {
     JSONDocument result = null;
 
     if(this.iterator.hasNext()) {
+      Object event = JsonEvents.beginRecord();
       this.nextNode = this.iterator.next();
-      result = new JSONDocument(nextNode, textPath, handleEntities);
+      result = new JSONDocument(nextNode, textPath, handleEntities,
+          canonicaliser, lazyEntityFeatures, offsetUnits);
+      if(event != null) {
+        JsonEvents.endRecord(event, textPath, result.getString().length(),
+            result.getAnnotations().size());
+      }
     }
 
     return result;
@@ -111,9 +182,59 @@ public class JSONDocumentStreamIterator implements Iterator<JSONDocument> {
         "The JSON document stream is read-only.");
   }
 
+  /**
+   * The length of the JSON text being parsed, or 0 when the objects are
+   * read from a stream.
+   */
+  public long getCharactersRead() {
+    return characters;
+  }
+
+  /**
+   * The number of bytes taken from the stream so far, once the stream is
+   * exhausted all of it (after any decompression), or 0 when the objects
+   * are read from a string.
+   */
+  public long getBytesRead() {
+    return counter == null ? 0 : counter.count;
+  }
+
   public void close() throws IOException {
     iterator.close();
     jsonParser.close();
   }
 
+  private static class CountingInputStream extends FilterInputStream {
+    long count = 0;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if(b >= 0) count++;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      if(n > 0) count += n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
 }
@@ -13,6 +13,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -20,7 +21,6 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
-import gate.Factory;
 import gate.FeatureMap;
 
 /* REFERENCES
@@ -37,6 +37,13 @@ public class JSONUtils  {
   public static final String ANNOTATION_TYPE = "Object";
   public static final String DEFAULT_TEXT_ATTRIBUTE = "text";
   public static final String ENTITIES_ATTRIBUTE = "entities";
+
+  /**
+   * Mapper shared by every parse.  ObjectMapper is thread-safe once
+   * configured, and sharing it lets Jackson recycle its per-thread parse
+   * buffers instead of building a new mapper and factory for each document.
+   */
+  static final ObjectMapper MAPPER = new ObjectMapper();
   
   public static List<JSONDocument> readJSONObjects(String string, String textPath) throws IOException {
     if (string.startsWith("[")) {
@@ -54,7 +61,7 @@ public class JSONUtils  {
   
 
   public static List<JSONDocument>readJSONObjectStrings(String[] lines, String textPath) throws IOException {
-    ObjectMapper mapper = new ObjectMapper();
+    ObjectMapper mapper = MAPPER;
     List<JSONDocument> tweets = new ArrayList<JSONDocument>();
     
     for (String line : lines) {
@@ -69,7 +76,7 @@ public class JSONUtils  {
 
   
   public static List<JSONDocument>readJSONObjectStrings(List<String> lines, String textPath) throws IOException {
-    ObjectMapper mapper = new ObjectMapper();
+    ObjectMapper mapper = MAPPER;
     List<JSONDocument> tweets = new ArrayList<JSONDocument>();
     
     for (String line : lines) {
@@ -84,7 +91,7 @@ public class JSONUtils  {
 
   
   public static List<JSONDocument> readJSONObjectList(String string, String textPath) throws IOException {
-    ObjectMapper mapper = new ObjectMapper();
+    ObjectMapper mapper = MAPPER;
     List<JSONDocument> tweets = new ArrayList<JSONDocument>();
     ArrayNode jarray = (ArrayNode) mapper.readTree(string);
     for (JsonNode jnode : jarray) {
@@ -95,6 +102,24 @@ public class JSONUtils  {
 
 
   public static Object process(JsonNode node) {
+    return process(node, null, null);
+  }
+
+  /**
+   * Convert a JSON node into the equivalent Java object, sharing field names
+   * and string values through the given canonicaliser.
+   *
+   * @param node the JSON node to convert
+   * @param canonicaliser table used to share repeated strings, may be null
+   * @return the converted value (possibly a FeatureMap if the node is an
+   *         object)
+   */
+  public static Object process(JsonNode node, StringCanonicaliser canonicaliser) {
+    return process(node, null, canonicaliser);
+  }
+
+  static Object process(JsonNode node, String field,
+      StringCanonicaliser canonicaliser) {
     /* JSON types: number, string, boolean, array, object (dict/map),
      * null.  All map keys are strings.
      */
@@ -119,6 +144,9 @@ public class JSONUtils  {
       return node.numberValue();
     }
     if (node.isTextual()) {
+      if (canonicaliser != null) {
+        return canonicaliser.canonicaliseValue(field, node.asText());
+      }
       return node.asText();
     }
       
@@ -127,30 +155,50 @@ public class JSONUtils  {
     }
     
     if (node.isArray()) {
-      List<Object> list = new ArrayList<Object>();
+      List<Object> list = new ArrayList<Object>(node.size());
       for (JsonNode item : node) {
-        list.add(process(item));
+        list.add(process(item, field, canonicaliser));
       }
       return list;
     }
 
     if (node.isObject()) {
-      FeatureMap map = Factory.newFeatureMap();
-      Iterator<String> keys = node.fieldNames();
-      while (keys.hasNext()) {
-        String key = keys.next();
-        map.put(key, process(node.get(key)));
-      }
-      return map;
+      return processFields(node, null, canonicaliser);
     }
 
     return node.toString();
   }
 
+  /**
+   * Convert the properties of a JSON object into a FeatureMap, optionally
+   * leaving out one property (such as the "indices" of an entity, which
+   * become the annotation offsets rather than a feature).
+   *
+   * @param node a JSON object node
+   * @param excludedKey the property to leave out, may be null
+   * @param canonicaliser table used to share repeated strings, may be null
+   * @return a FeatureMap holding the converted properties
+   */
+  public static CompactFeatureMap processFields(JsonNode node, String excludedKey,
+      StringCanonicaliser canonicaliser) {
+    CompactFeatureMap map = new CompactFeatureMap(
+        excludedKey != null && node.has(excludedKey) ? node.size() - 1 : node.size());
+    Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+    while (fields.hasNext()) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      String key = field.getKey();
+      if (key.equals(excludedKey)) continue;
+      Object value = process(field.getValue(), key, canonicaliser);
+      if (canonicaliser != null) key = canonicaliser.canonicaliseKey(key);
+      map.put(key, value);
+    }
+    return map;
+  }
+
   
 
   public static FeatureMap process(JsonNode node, List<String> keepers) {
-    FeatureMap found = Factory.newFeatureMap();
+    FeatureMap found = new CompactFeatureMap(keepers.size());
     for (String keeper : keepers) {
       String[] keySequence = StringUtils.split(keeper, PATH_SEPARATOR);
       Object value = dig(node, keySequence, 0);
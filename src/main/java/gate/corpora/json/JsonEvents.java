@@ -0,0 +1,88 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Emits Java Flight Recorder events for individual documents, so that a
+ * slow document can be lined up against GC and I/O in the same recording.
+ *
+ * The events are ordinary JFR events in the "GATE / JSON" category,
+ * switched on and off and given thresholds through the usual JFR settings
+ * (gate.corpora.json.DocumentParse, gate.corpora.json.RecordParse and
+ * gate.corpora.json.DocumentExport).  When recording is off, or the JVM has
+ * no jdk.jfr API at all (Java 8 before update 262), each call here is a
+ * field check and nothing more.
+ *
+ * Events are begun with one of the begin methods and finished with the
+ * matching end method, which accept the null returned when the event is
+ * not wanted.  The event types themselves are only referenced from behind
+ * the availability check, so they are never loaded where JFR is missing.
+ */
+public final class JsonEvents {
+
+  private static final Logger logger = Logger.getLogger(JsonEvents.class);
+
+  private static final boolean AVAILABLE = available();
+
+  private JsonEvents() {
+  }
+
+  private static boolean available() {
+    try {
+      Class.forName("jdk.jfr.Event", false, JsonEvents.class.getClassLoader());
+      return true;
+    } catch(ClassNotFoundException | LinkageError e) {
+      logger.debug("JFR not available, JSON document events disabled");
+      return false;
+    }
+  }
+
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  public static Object beginParse() {
+    return AVAILABLE ? DocumentParseEvent.start() : null;
+  }
+
+  public static void endParse(Object event, String document, long characters,
+      int records, long annotations, long parseNanos, long concatenateNanos,
+      long annotateNanos) {
+    if(event != null) {
+      DocumentParseEvent.finish(event, document, characters, records,
+          annotations, parseNanos, concatenateNanos, annotateNanos);
+    }
+  }
+
+  public static Object beginRecord() {
+    return AVAILABLE ? RecordParseEvent.start() : null;
+  }
+
+  public static void endRecord(Object event, String textPath, long characters,
+      int annotations) {
+    if(event != null) {
+      RecordParseEvent.finish(event, textPath, characters, annotations);
+    }
+  }
+
+  public static Object beginExport() {
+    return AVAILABLE ? DocumentExportEvent.start() : null;
+  }
+
+  public static void endExport(Object event, String document, long characters,
+      int records, long prepareNanos, long writeNanos) {
+    if(event != null) {
+      DocumentExportEvent.finish(event, document, characters, records,
+          prepareNanos, writeNanos);
+    }
+  }
+}
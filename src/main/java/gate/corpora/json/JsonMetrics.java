@@ -0,0 +1,260 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Counters and latency histograms for the JSON format, the corpus
+ * populator and the exporter, shared by the whole JVM and published over
+ * JMX as {@value #OBJECT_NAME} while the plugin is loaded.
+ *
+ * Recording is lock free (LongAdder based) and costs a few nanoseconds per
+ * document or record, so it is always on; nothing is computed until the
+ * MBean is read.
+ */
+public class JsonMetrics implements JsonMetricsMXBean {
+
+  public static final String OBJECT_NAME = "gate.corpora.json:type=JsonMetrics";
+
+  private static final Logger logger = Logger.getLogger(JsonMetrics.class);
+
+  private static final JsonMetrics INSTANCE = new JsonMetrics();
+
+  public static JsonMetrics get() {
+    return INSTANCE;
+  }
+
+  private final LongAdder documentsParsed = new LongAdder();
+
+  private final LongAdder charactersParsed = new LongAdder();
+
+  private final LongAdder bytesParsed = new LongAdder();
+
+  private final LongAdder recordsParsed = new LongAdder();
+
+  private final LongAdder annotationsCreated = new LongAdder();
+
+  private final LongAdder parseErrors = new LongAdder();
+
+  private final Log2Histogram recordsPerDocument = new Log2Histogram();
+
+  private final Log2Histogram parseTime = new Log2Histogram();
+
+  private final Log2Histogram unescapeTime = new Log2Histogram();
+
+  private final Log2Histogram concatenateTime = new Log2Histogram();
+
+  private final Log2Histogram annotateTime = new Log2Histogram();
+
+  private final LongAdder documentsPopulated = new LongAdder();
+
+  private final LongAdder bytesPopulated = new LongAdder();
+
+  private final LongAdder populateErrors = new LongAdder();
+
+  private final LongAdder documentsExported = new LongAdder();
+
+  private final LongAdder bytesExported = new LongAdder();
+
+  private final Log2Histogram serialiseTime = new Log2Histogram();
+
+  private JsonMetrics() {
+  }
+
+  /**
+   * The number of loaded formats that have registered the metrics.
+   */
+  private static int registrations = 0;
+
+  /**
+   * Publish the metrics over JMX, if they are not already.  Each call
+   * should be matched by a call to {@link #unregister()}.
+   */
+  public static synchronized void register() {
+    if(registrations++ > 0) return;
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if(!server.isRegistered(name)) server.registerMBean(INSTANCE, name);
+    } catch(JMException | SecurityException e) {
+      logger.warn("Could not register JSON metrics MBean", e);
+    }
+  }
+
+  /**
+   * Withdraw the metrics from JMX and reset them, once every call to
+   * {@link #register()} has been matched by a call to this.
+   */
+  public static synchronized void unregister() {
+    if(registrations == 0 || --registrations > 0) return;
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if(server.isRegistered(name)) server.unregisterMBean(name);
+    } catch(JMException | SecurityException e) {
+      logger.warn("Could not unregister JSON metrics MBean", e);
+    }
+    INSTANCE.reset();
+  }
+
+  /**
+   * Record a document unpacked by the format: its length in characters of
+   * JSON text or in bytes of binary JSON, the number of JSON records and
+   * annotations it produced and the time spent in each phase.
+   */
+  public void documentParsed(long characters, long bytes, int records,
+      long annotations, long parseNanos, long concatenateNanos,
+      long annotateNanos) {
+    documentsParsed.increment();
+    charactersParsed.add(characters);
+    bytesParsed.add(bytes);
+    recordsParsed.add(records);
+    annotationsCreated.add(annotations);
+    recordsPerDocument.record(records);
+    parseTime.record(parseNanos);
+    concatenateTime.record(concatenateNanos);
+    annotateTime.record(annotateNanos);
+  }
+
+  public void unescaped(long nanos) {
+    unescapeTime.record(nanos);
+  }
+
+  public void parseError() {
+    parseErrors.increment();
+  }
+
+  public void documentPopulated() {
+    documentsPopulated.increment();
+  }
+
+  public void bytesPopulated(long bytes) {
+    bytesPopulated.add(bytes);
+  }
+
+  public void populateError() {
+    populateErrors.increment();
+  }
+
+  public void documentExported(long serialiseNanos) {
+    documentsExported.increment();
+    serialiseTime.record(serialiseNanos);
+  }
+
+  public void bytesExported(long bytes) {
+    bytesExported.add(bytes);
+  }
+
+  @Override
+  public long getDocumentsParsed() {
+    return documentsParsed.sum();
+  }
+
+  @Override
+  public long getCharactersParsed() {
+    return charactersParsed.sum();
+  }
+
+  @Override
+  public long getBytesParsed() {
+    return bytesParsed.sum();
+  }
+
+  @Override
+  public long getRecordsParsed() {
+    return recordsParsed.sum();
+  }
+
+  @Override
+  public long getAnnotationsCreated() {
+    return annotationsCreated.sum();
+  }
+
+  @Override
+  public long getParseErrors() {
+    return parseErrors.sum();
+  }
+
+  @Override
+  public Log2Histogram.Snapshot getRecordsPerDocument() {
+    return recordsPerDocument.snapshot();
+  }
+
+  @Override
+  public Log2Histogram.Snapshot getParseTime() {
+    return parseTime.snapshot();
+  }
+
+  @Override
+  public Log2Histogram.Snapshot getUnescapeTime() {
+    return unescapeTime.snapshot();
+  }
+
+  @Override
+  public Log2Histogram.Snapshot getConcatenateTime() {
+    return concatenateTime.snapshot();
+  }
+
+  @Override
+  public Log2Histogram.Snapshot getAnnotateTime() {
+    return annotateTime.snapshot();
+  }
+
+  @Override
+  public long getDocumentsPopulated() {
+    return documentsPopulated.sum();
+  }
+
+  @Override
+  public long getBytesPopulated() {
+    return bytesPopulated.sum();
+  }
+
+  @Override
+  public long getPopulateErrors() {
+    return populateErrors.sum();
+  }
+
+  @Override
+  public long getDocumentsExported() {
+    return documentsExported.sum();
+  }
+
+  @Override
+  public long getBytesExported() {
+    return bytesExported.sum();
+  }
+
+  @Override
+  public Log2Histogram.Snapshot getSerialiseTime() {
+    return serialiseTime.snapshot();
+  }
+
+  @Override
+  public void reset() {
+    for(LongAdder counter : new LongAdder[] {documentsParsed, charactersParsed,
+        bytesParsed, recordsParsed, annotationsCreated, parseErrors, documentsPopulated,
+        bytesPopulated, populateErrors, documentsExported, bytesExported}) {
+      counter.reset();
+    }
+    for(Log2Histogram histogram : new Log2Histogram[] {recordsPerDocument,
+        parseTime, unescapeTime, concatenateTime, annotateTime, serialiseTime}) {
+      histogram.reset();
+    }
+  }
+}
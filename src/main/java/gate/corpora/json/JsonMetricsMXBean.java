@@ -0,0 +1,66 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+/**
+ * Management interface of {@link JsonMetrics}.  Times are in nanoseconds.
+ *
+ * Parsing a document is timed in three phases that do not overlap: parse
+ * (reading the JSON records), concatenate (building the document text)
+ * and annotate.  The unescape time is a sub-phase of parse, the part spent
+ * turning the text of each record into document text, and is already
+ * included in the parse time.
+ */
+public interface JsonMetricsMXBean {
+
+  long getDocumentsParsed();
+
+  /**
+   * UTF-16 characters of JSON text parsed.  GATE decodes a text document
+   * before the format sees it, so the bytes it was read from are not known.
+   */
+  long getCharactersParsed();
+
+  /**
+   * Bytes of Smile or CBOR parsed by the binary JSON format, after any
+   * decompression.
+   */
+  long getBytesParsed();
+
+  long getRecordsParsed();
+
+  long getAnnotationsCreated();
+
+  long getParseErrors();
+
+  Log2Histogram.Snapshot getRecordsPerDocument();
+
+  Log2Histogram.Snapshot getParseTime();
+
+  Log2Histogram.Snapshot getUnescapeTime();
+
+  Log2Histogram.Snapshot getConcatenateTime();
+
+  Log2Histogram.Snapshot getAnnotateTime();
+
+  long getDocumentsPopulated();
+
+  long getBytesPopulated();
+
+  long getPopulateErrors();
+
+  long getDocumentsExported();
+
+  long getBytesExported();
+
+  Log2Histogram.Snapshot getSerialiseTime();
+
+  void reset();
+}
@@ -0,0 +1,367 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Profiles the structure of large JSON inputs without building trees or
+ * documents, to help choose the text path, ID path and features to keep
+ * before loading anything into GATE.
+ *
+ * The input is read a token at a time with the streaming parser, either as
+ * a sequence of root values (JSON lines) or as one array of records, and
+ * may be gzipped.  For every path through the records (fields joined by
+ * ".", array elements marked "[]") the profiler counts how often it occurs,
+ * with which JSON types, the average size in bytes of its values and, for
+ * scalar values, an estimate of the number of distinct values.  The memory
+ * needed depends only on the number of distinct paths, not the size of the
+ * input.
+ *
+ * Run from the command line with
+ * <code>java gate.corpora.json.JsonProfiler [-text path] [-keep a,b,...] file...</code>
+ * to print a report; given a keep list it also totals the feature bytes
+ * that keeping only those paths would save.
+ */
+public class JsonProfiler {
+
+  /**
+   * Field names beyond this many distinct ones under a single object path
+   * are profiled together as "*", as they are almost certainly data (IDs
+   * used as keys and so on) rather than structure.
+   */
+  private static final int MAX_FIELDS_PER_OBJECT = 1000;
+
+  private static final String[] TYPES = {"object", "array", "string",
+      "number", "boolean", "null"};
+
+  private final PathNode root = new PathNode("", null);
+
+  private long records = 0;
+
+  private long bytes = 0;
+
+  /**
+   * Profile a further input, which is closed when done.  Gzipped input is
+   * recognised by its leading magic bytes.
+   */
+  public void profile(InputStream input) throws IOException {
+    try(InputStream source = input) {
+      InputStream in = new BufferedInputStream(source, 65536);
+      in.mark(2);
+      int first = in.read();
+      int second = in.read();
+      in.reset();
+      if(first == 0x1f && second == 0x8b) {
+        in = new BufferedInputStream(new GZIPInputStream(in, 65536), 65536);
+      }
+      try(JsonParser parser = JSONUtils.MAPPER.getFactory().createParser(in)) {
+        JsonToken token = parser.nextToken();
+        if(token == JsonToken.START_ARRAY) {
+          // an array of records
+          while((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            record(parser, token);
+          }
+        } else {
+          while(token != null) {
+            record(parser, token);
+            token = parser.nextToken();
+          }
+        }
+        bytes += parser.getCurrentLocation().getByteOffset();
+      }
+    }
+  }
+
+  public void profile(File file) throws IOException {
+    profile(new FileInputStream(file));
+  }
+
+  private void record(JsonParser parser, JsonToken token) throws IOException {
+    records++;
+    value(parser, token, root);
+  }
+
+  /**
+   * Profile the value starting at the current token, leaving the parser on
+   * its last token.
+   */
+  private void value(JsonParser parser, JsonToken token, PathNode path)
+    throws IOException {
+    long start = parser.getTokenLocation().getByteOffset();
+    switch(token) {
+      case START_OBJECT:
+        path.types[0]++;
+        while((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+          PathNode child = path.child(parser.getCurrentName());
+          value(parser, parser.nextToken(), child);
+        }
+        path.add(parser.getCurrentLocation().getByteOffset() - start);
+        return;
+      case START_ARRAY:
+        path.types[1]++;
+        PathNode elements = path.child("[]");
+        while((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+          value(parser, token, elements);
+        }
+        path.add(parser.getCurrentLocation().getByteOffset() - start);
+        return;
+      case VALUE_STRING:
+        path.types[2]++;
+        break;
+      case VALUE_NUMBER_INT:
+      case VALUE_NUMBER_FLOAT:
+        path.types[3]++;
+        break;
+      case VALUE_TRUE:
+      case VALUE_FALSE:
+        path.types[4]++;
+        break;
+      default:
+        path.types[5]++;
+        break;
+    }
+    // reading the characters completes the token, so the location that
+    // follows is its end
+    char[] chars = parser.getTextCharacters();
+    int offset = parser.getTextOffset();
+    int length = parser.getTextLength();
+    path.distinct().add(HyperLogLog.hash(chars, offset, length) ^ token.ordinal());
+    path.add(parser.getCurrentLocation().getByteOffset() - start);
+  }
+
+  public long getRecords() {
+    return records;
+  }
+
+  /**
+   * Bytes of (uncompressed) JSON read so far.
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * The profile of every path seen so far, sorted by path.
+   */
+  public Map<String, PathProfile> getPaths() {
+    Map<String, PathProfile> paths = new TreeMap<String, PathProfile>();
+    collect(root, paths);
+    return paths;
+  }
+
+  private void collect(PathNode node, Map<String, PathProfile> paths) {
+    for(PathNode child : node.children.values()) {
+      paths.put(child.path, new PathProfile(child));
+      collect(child, paths);
+    }
+  }
+
+  /**
+   * The bytes of JSON that would become document features for the given
+   * text path: every top level field except the text itself and the
+   * entities beside it.  With a keep list, only the listed paths (in the
+   * "." or ":" separated form) would be kept.
+   */
+  public long featureBytes(String textPath, Collection<String> keep) {
+    long total = 0;
+    if(keep == null) {
+      for(PathNode field : root.children.values()) {
+        total += field.bytes;
+      }
+      String[] text = textPath.split("\\.");
+      total -= bytesAt(text);
+      text[text.length - 1] = JSONUtils.ENTITIES_ATTRIBUTE;
+      total -= bytesAt(text);
+    } else {
+      for(String path : keep) {
+        total += bytesAt(path.split("[.:]"));
+      }
+    }
+    return total;
+  }
+
+  private long bytesAt(String[] path) {
+    PathNode node = root;
+    for(String field : path) {
+      node = node.children.get(field);
+      if(node == null) return 0;
+    }
+    return node.bytes;
+  }
+
+  /**
+   * Print a report of every path, and of the feature bytes saved by the
+   * keep list if one is given.
+   */
+  public void report(PrintStream out, String textPath, Collection<String> keep) {
+    out.println(String.format(Locale.ROOT, "%d records, %d bytes", records, bytes));
+    out.println(String.format(Locale.ROOT, "%-50s %10s %7s %12s %10s  %s",
+        "path", "count", "%recs", "avg bytes", "distinct", "types"));
+    for(Map.Entry<String, PathProfile> entry : getPaths().entrySet()) {
+      PathProfile profile = entry.getValue();
+      out.println(String.format(Locale.ROOT, "%-50s %10d %7.1f %12.1f %10s  %s",
+          entry.getKey(), profile.getCount(),
+          records == 0 ? 0.0 : 100.0 * profile.getCount() / records,
+          profile.getAverageBytes(),
+          profile.getDistinct() < 0 ? "-" : Long.toString(profile.getDistinct()),
+          profile.getTypes()));
+    }
+    long features = featureBytes(textPath, null);
+    out.println(String.format(Locale.ROOT, "feature bytes with text path %s: %d",
+        textPath, features));
+    if(keep != null) {
+      long kept = featureBytes(textPath, keep);
+      out.println(String.format(Locale.ROOT,
+          "keeping %s: %d bytes, saving %d (%.1f%%)", keep, kept,
+          features - kept, features == 0 ? 0.0 : 100.0 * (features - kept) / features));
+    }
+  }
+
+  /**
+   * What was seen at one path.
+   */
+  public static class PathProfile {
+
+    private final long count;
+
+    private final double averageBytes;
+
+    private final long distinct;
+
+    private final Map<String, Long> types;
+
+    PathProfile(PathNode node) {
+      this.count = node.count;
+      this.averageBytes = node.count == 0 ? 0 : (double)node.bytes / node.count;
+      this.distinct = node.distinct == null ? -1 : node.distinct.estimate();
+      Map<String, Long> types = new TreeMap<String, Long>();
+      for(int i = 0; i < TYPES.length; i++) {
+        if(node.types[i] > 0) types.put(TYPES[i], node.types[i]);
+      }
+      this.types = Collections.unmodifiableMap(types);
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public double getAverageBytes() {
+      return averageBytes;
+    }
+
+    /**
+     * Estimated number of distinct scalar values, or -1 if the path only
+     * ever held objects and arrays.
+     */
+    public long getDistinct() {
+      return distinct;
+    }
+
+    /**
+     * How many times each JSON type was seen.
+     */
+    public Map<String, Long> getTypes() {
+      return types;
+    }
+  }
+
+  private static class PathNode {
+
+    final String path;
+
+    final Map<String, PathNode> children = new HashMap<String, PathNode>();
+
+    final long[] types = new long[TYPES.length];
+
+    long count;
+
+    long bytes;
+
+    HyperLogLog distinct;
+
+    PathNode(String name, PathNode parent) {
+      if(parent == null || parent.path.isEmpty()) {
+        path = name;
+      } else {
+        path = name.equals("[]") ? parent.path + name : parent.path + "." + name;
+      }
+    }
+
+    PathNode child(String name) {
+      PathNode child = children.get(name);
+      if(child == null) {
+        if(children.size() >= MAX_FIELDS_PER_OBJECT) name = "*";
+        child = children.get(name);
+        if(child == null) {
+          child = new PathNode(name, this);
+          children.put(name, child);
+        }
+      }
+      return child;
+    }
+
+    void add(long valueBytes) {
+      count++;
+      bytes += valueBytes;
+    }
+
+    HyperLogLog distinct() {
+      if(distinct == null) distinct = new HyperLogLog();
+      return distinct;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    String textPath = JSONUtils.DEFAULT_TEXT_ATTRIBUTE;
+    List<String> keep = null;
+    List<File> files = new ArrayList<File>();
+    for(int i = 0; i < args.length; i++) {
+      if(args[i].equals("-text") && i + 1 < args.length) {
+        textPath = args[++i];
+      } else if(args[i].equals("-keep") && i + 1 < args.length) {
+        keep = Arrays.asList(args[++i].split(","));
+      } else {
+        files.add(new File(args[i]));
+      }
+    }
+    if(files.isEmpty()) {
+      System.err.println("Usage: JsonProfiler [-text path] [-keep a,b,...] file...");
+      System.exit(1);
+    }
+    JsonProfiler profiler = new JsonProfiler();
+    long startTime = System.nanoTime();
+    for(File file : files) {
+      profiler.profile(file);
+    }
+    long elapsed = System.nanoTime() - startTime;
+    profiler.report(System.out, textPath, keep);
+    System.out.println(String.format(Locale.ROOT, "profiled in %.1fs (%.1f MB/s)",
+        elapsed / 1e9, profiler.getBytes() / 1048576.0 / Math.max(elapsed / 1e9, 1e-9)));
+  }
+}
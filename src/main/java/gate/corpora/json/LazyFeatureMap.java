@@ -0,0 +1,185 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import gate.FeatureMap;
+import gate.creole.ontology.Ontology;
+import gate.event.FeatureMapListener;
+
+/**
+ * A FeatureMap that holds on to the parsed JSON object it was created from
+ * and only converts it into features the first time it is accessed.  Used
+ * for entity annotations when the caller expects most of their features
+ * never to be read, so the conversion cost is only paid for those that are.
+ *
+ * Serializing this map writes the converted {@link CompactFeatureMap}, so
+ * the JSON tree never ends up in a datastore.
+ */
+public class LazyFeatureMap implements FeatureMap, Serializable {
+
+  private static final long serialVersionUID = -3216208420386930813L;
+
+  private transient JsonNode source;
+
+  private transient String excludedKey;
+
+  private transient StringCanonicaliser canonicaliser;
+
+  private volatile CompactFeatureMap features;
+
+  /**
+   * @param source the JSON object holding the features
+   * @param excludedKey a property of the object that should not become a
+   *          feature, may be null
+   * @param canonicaliser table used to share repeated strings, may be null
+   */
+  public LazyFeatureMap(JsonNode source, String excludedKey,
+      StringCanonicaliser canonicaliser) {
+    this.source = source;
+    this.excludedKey = excludedKey;
+    this.canonicaliser = canonicaliser;
+  }
+
+  /**
+   * Has the JSON object been converted into features yet?
+   */
+  public boolean isMaterialised() {
+    return features != null;
+  }
+
+  private FeatureMap features() {
+    CompactFeatureMap result = features;
+    if(result == null) {
+      synchronized(this) {
+        result = features;
+        if(result == null) {
+          result = JSONUtils.processFields(source, excludedKey, canonicaliser);
+          features = result;
+          source = null;
+          canonicaliser = null;
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public int size() {
+    return features().size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return features().isEmpty();
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return features().containsKey(key);
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    return features().containsValue(value);
+  }
+
+  @Override
+  public Object get(Object key) {
+    return features().get(key);
+  }
+
+  @Override
+  public Object put(Object key, Object value) {
+    return features().put(key, value);
+  }
+
+  @Override
+  public Object remove(Object key) {
+    return features().remove(key);
+  }
+
+  @Override
+  public void putAll(Map<? extends Object, ? extends Object> m) {
+    features().putAll(m);
+  }
+
+  @Override
+  public void clear() {
+    features().clear();
+  }
+
+  @Override
+  public Set<Object> keySet() {
+    return features().keySet();
+  }
+
+  @Override
+  public Collection<Object> values() {
+    return features().values();
+  }
+
+  @Override
+  public Set<Map.Entry<Object, Object>> entrySet() {
+    return features().entrySet();
+  }
+
+  @Override
+  public boolean subsumes(FeatureMap aFeatureMap) {
+    return features().subsumes(aFeatureMap);
+  }
+
+  @Override
+  public boolean subsumes(Ontology ontologyLR, FeatureMap aFeatureMap) {
+    return features().subsumes(ontologyLR, aFeatureMap);
+  }
+
+  @Override
+  public boolean subsumes(FeatureMap aFeatureMap,
+      Set<? extends Object> aFeatureNamesSet) {
+    return features().subsumes(aFeatureMap, aFeatureNamesSet);
+  }
+
+  @Override
+  public void removeFeatureMapListener(FeatureMapListener l) {
+    features().removeFeatureMapListener(l);
+  }
+
+  @Override
+  public void addFeatureMapListener(FeatureMapListener l) {
+    features().addFeatureMapListener(l);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o == this || features().equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    return features().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return features().toString();
+  }
+
+  private Object writeReplace() throws ObjectStreamException {
+    return features();
+  }
+}
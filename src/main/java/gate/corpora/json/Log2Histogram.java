@@ -0,0 +1,135 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values with one bucket per power of two,
+ * safe to record into from any number of threads without locking.  Bucket
+ * i counts the values v with 2<sup>i-1</sup> &lt;= v &lt; 2<sup>i</sup>
+ * (bucket 0 counts zeros), so percentiles are accurate to within a factor
+ * of two, which is plenty for telling microseconds from milliseconds.
+ */
+public class Log2Histogram {
+
+  private final LongAdder[] buckets = new LongAdder[65];
+
+  private final LongAdder sum = new LongAdder();
+
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public Log2Histogram() {
+    for(int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long value) {
+    if(value < 0) value = 0;
+    buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  public void reset() {
+    for(LongAdder bucket : buckets) {
+      bucket.reset();
+    }
+    sum.reset();
+    max.reset();
+  }
+
+  /**
+   * The current state of the histogram.  Values recorded while the
+   * snapshot is being taken may or may not be included.
+   */
+  public Snapshot snapshot() {
+    long[] counts = new long[buckets.length];
+    long total = 0;
+    for(int i = 0; i < counts.length; i++) {
+      counts[i] = buckets[i].sum();
+      total += counts[i];
+    }
+    long sumValue = sum.sum();
+    long maxValue = max.get();
+    return new Snapshot(total, total == 0 ? 0 : sumValue / total,
+        Math.min(maxValue, percentile(counts, total, 0.5)),
+        Math.min(maxValue, percentile(counts, total, 0.9)),
+        Math.min(maxValue, percentile(counts, total, 0.99)), maxValue);
+  }
+
+  /**
+   * Upper bound of the bucket holding the given quantile.
+   */
+  private static long percentile(long[] counts, long total, double quantile) {
+    if(total == 0) return 0;
+    long rank = (long)Math.ceil(quantile * total);
+    long seen = 0;
+    for(int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if(seen >= rank) return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Summary statistics of a histogram, as exposed over JMX.
+   */
+  public static class Snapshot {
+    private final long count;
+
+    private final long mean;
+
+    private final long p50;
+
+    private final long p90;
+
+    private final long p99;
+
+    private final long max;
+
+    @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "max"})
+    public Snapshot(long count, long mean, long p50, long p90, long p99, long max) {
+      this.count = count;
+      this.mean = mean;
+      this.p50 = p50;
+      this.p90 = p90;
+      this.p99 = p99;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMean() {
+      return mean;
+    }
+
+    public long getP50() {
+      return p50;
+    }
+
+    public long getP90() {
+      return p90;
+    }
+
+    public long getP99() {
+      return p99;
+    }
+
+    public long getMax() {
+      return max;
+    }
+  }
+}
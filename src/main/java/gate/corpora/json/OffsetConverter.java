@@ -0,0 +1,228 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.util.Arrays;
+
+/**
+ * Converts offsets between two versions of a text, such as the escaped
+ * JSON text counted in code points and the unescaped GATE document content
+ * counted in UTF-16 code units.
+ *
+ * Only the places where the two versions differ (an escape sequence, a
+ * supplementary character, a multi-byte UTF-8 sequence) are recorded, as
+ * "events"; between events offsets move in step.  A run of identical
+ * events back to back, such as a string of emoji or of CJK characters
+ * counted in UTF-8 bytes, is recorded as a single event repeated, so the
+ * index stays small however dense the differences are.
+ *
+ * Conversion is a binary search over the events, skipped when the offset
+ * falls in the same or the next gap as the previous conversion, which is
+ * the common case when annotations are converted in document order.  Text
+ * with no events at all converts through the shared {@link #IDENTITY}
+ * instance without any lookup.
+ *
+ * Positions that fall strictly inside an event are treated the same way
+ * as {@link gate.corpora.RepositioningInfo} treats them, so results are
+ * identical to that class for the mappings this plugin builds.
+ */
+public class OffsetConverter {
+
+  /**
+   * A converter for two texts with identical offsets.
+   */
+  public static final OffsetConverter IDENTITY = new OffsetConverter(
+      new int[0], new int[0], new int[0], new int[0], new int[0], 0);
+
+  private final int[] sourceStarts;
+
+  private final int[] sourceLengths;
+
+  private final int[] targetStarts;
+
+  private final int[] targetLengths;
+
+  /**
+   * How many identical events each entry stands for.
+   */
+  private final int[] repeats;
+
+  private final int count;
+
+  /**
+   * The event found by the last conversion.  Only ever a starting point for
+   * the search, so unsynchronized access from several threads is harmless.
+   */
+  private int hint = 0;
+
+  private OffsetConverter(int[] sourceStarts, int[] sourceLengths,
+      int[] targetStarts, int[] targetLengths, int[] repeats, int count) {
+    this.sourceStarts = sourceStarts;
+    this.sourceLengths = sourceLengths;
+    this.targetStarts = targetStarts;
+    this.targetLengths = targetLengths;
+    this.repeats = repeats;
+    this.count = count;
+  }
+
+  /**
+   * Does this converter leave every offset unchanged?
+   */
+  public boolean isIdentity() {
+    return count == 0;
+  }
+
+  /**
+   * Convert an offset in the source text to the corresponding offset in the
+   * target text.
+   */
+  public long convert(long sourceOffset) {
+    if(count == 0 || sourceOffset < sourceStarts[0]) return sourceOffset;
+    int i = lastEventAtOrBefore(sourceOffset);
+    long delta = sourceOffset - sourceStarts[i];
+    if(delta < sourceLengths[i]) {
+      // inside the event itself, or one of its repeats
+      int sourceLength = sourceLengths[i] / repeats[i];
+      int targetLength = targetLengths[i] / repeats[i];
+      return targetStarts[i] + (delta / sourceLength) * targetLength
+          + Math.min(delta % sourceLength, targetLength);
+    }
+    return targetStarts[i] + targetLengths[i] + (delta - sourceLengths[i]);
+  }
+
+  private int lastEventAtOrBefore(long sourceOffset) {
+    int i = hint;
+    if(sourceStarts[i] <= sourceOffset) {
+      if(i + 1 == count || sourceOffset < sourceStarts[i + 1]) return i;
+      if(i + 2 == count || sourceOffset < sourceStarts[i + 2]) {
+        hint = i + 1;
+        return i + 1;
+      }
+    }
+    i = search(sourceOffset);
+    hint = i;
+    return i;
+  }
+
+  private int search(long sourceOffset) {
+    int low = 0;
+    int high = count - 1;
+    while(low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if(sourceStarts[mid] <= sourceOffset) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Number of events recorded by this converter, counting a run of
+   * repeated events as one.
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Builds a converter from events added in increasing offset order.
+   */
+  public static class Builder {
+    private static final int MAX_RETAINED_EVENTS = 1 << 16;
+
+    private int[] sourceStarts;
+
+    private int[] sourceLengths;
+
+    private int[] targetStarts;
+
+    private int[] targetLengths;
+
+    private int[] repeats;
+
+    private int count = 0;
+
+    public Builder() {
+      this(16);
+    }
+
+    public Builder(int expectedEvents) {
+      int capacity = Math.max(expectedEvents, 4);
+      sourceStarts = new int[capacity];
+      sourceLengths = new int[capacity];
+      targetStarts = new int[capacity];
+      targetLengths = new int[capacity];
+      repeats = new int[capacity];
+    }
+
+    /**
+     * Record that the span of the given length at the given source offset
+     * corresponds to a span of a (different) length at the given target
+     * offset.
+     */
+    public Builder addEvent(int sourceStart, int sourceLength,
+        int targetStart, int targetLength) {
+      if(count > 0) {
+        int last = count - 1;
+        if(sourceStarts[last] + sourceLengths[last] == sourceStart
+            && targetStarts[last] + targetLengths[last] == targetStart
+            && sourceLengths[last] == sourceLength * repeats[last]
+            && targetLengths[last] == targetLength * repeats[last]) {
+          // another copy of the event immediately before
+          sourceLengths[last] += sourceLength;
+          targetLengths[last] += targetLength;
+          repeats[last]++;
+          return this;
+        }
+      }
+      if(count == sourceStarts.length) {
+        int capacity = count * 2;
+        sourceStarts = Arrays.copyOf(sourceStarts, capacity);
+        sourceLengths = Arrays.copyOf(sourceLengths, capacity);
+        targetStarts = Arrays.copyOf(targetStarts, capacity);
+        targetLengths = Arrays.copyOf(targetLengths, capacity);
+        repeats = Arrays.copyOf(repeats, capacity);
+      }
+      sourceStarts[count] = sourceStart;
+      sourceLengths[count] = sourceLength;
+      targetStarts[count] = targetStart;
+      targetLengths[count] = targetLength;
+      repeats[count] = 1;
+      count++;
+      return this;
+    }
+
+    /**
+     * Forget all events so this builder can be used again, releasing the
+     * space taken by an unusually large number of events.
+     */
+    public void reset() {
+      count = 0;
+      if(sourceStarts.length > MAX_RETAINED_EVENTS) {
+        sourceStarts = new int[16];
+        sourceLengths = new int[16];
+        targetStarts = new int[16];
+        targetLengths = new int[16];
+        repeats = new int[16];
+      }
+    }
+
+    public OffsetConverter build() {
+      if(count == 0) return IDENTITY;
+      return new OffsetConverter(Arrays.copyOf(sourceStarts, count),
+          Arrays.copyOf(sourceLengths, count),
+          Arrays.copyOf(targetStarts, count),
+          Arrays.copyOf(targetLengths, count),
+          Arrays.copyOf(repeats, count), count);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.util.Locale;
+
+/**
+ * The units in which the "indices" of JSON entities are counted.
+ */
+public enum OffsetUnit {
+  /**
+   * Unicode code points, as used by Twitter, so a supplementary character
+   * counts as one.
+   */
+  CODEPOINTS("codepoints"),
+
+  /**
+   * UTF-16 code units, the same as Java <code>char</code> values and GATE
+   * annotation offsets, so a supplementary character counts as two.
+   */
+  UTF16("utf16"),
+
+  /**
+   * Bytes of the UTF-8 encoding of the text.
+   */
+  UTF8_BYTES("utf8-bytes");
+
+  private final String name;
+
+  private OffsetUnit(String name) {
+    this.name = name;
+  }
+
+  /**
+   * The name of this unit as used in the "offset-units" mime type parameter.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * The number of units taken up by the given code point.
+   */
+  public int length(int codePoint) {
+    switch(this) {
+      case UTF16:
+        return Character.charCount(codePoint);
+      case UTF8_BYTES:
+        if(codePoint < 0x80) return 1;
+        if(codePoint < 0x800) return 2;
+        if(codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) return 3;
+        return 4;
+      default:
+        return 1;
+    }
+  }
+
+  /**
+   * Parse the value of an "offset-units" parameter, which may be null (in
+   * which case the Twitter-compatible default of code points is used),
+   * an OffsetUnit or the name of one.
+   */
+  public static OffsetUnit parse(Object value) {
+    if(value == null) return CODEPOINTS;
+    if(value instanceof OffsetUnit) return (OffsetUnit)value;
+    String str = value.toString().trim().toLowerCase(Locale.ENGLISH);
+    if(str.isEmpty()) return CODEPOINTS;
+    for(OffsetUnit unit : values()) {
+      if(unit.name.equals(str) || unit.name().equalsIgnoreCase(str)) {
+        return unit;
+      }
+    }
+    throw new IllegalArgumentException("Unknown offset units: " + value);
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -13,7 +13,6 @@ package gate.corpora.json;
 import gate.Annotation;
 import gate.AnnotationSet;
 import gate.Document;
-import gate.Factory;
 import gate.FeatureMap;
 import gate.GateConstants;
 import gate.util.InvalidOffsetException;
@@ -38,7 +37,7 @@ public class PreAnnotation  {
   
   public PreAnnotation(long start, long end, String asName, String type, FeatureMap features) {
     if (features == null) {
-      this.features = Factory.newFeatureMap();
+      this.features = new CompactFeatureMap();
     }
     else {
       this.features = features;
@@ -52,7 +51,7 @@ public class PreAnnotation  {
   
   
   public PreAnnotation(long start, long end, String type) {
-    this.features = Factory.newFeatureMap();
+    this.features = new CompactFeatureMap();
     this.type = type;
     this.setStart(start);
     this.setEnd(end);
@@ -0,0 +1,60 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One JSON record read by a {@link JSONDocumentStreamIterator}.  There can
+ * be millions of these in a recording, so they are off unless asked for.
+ */
+@Name("gate.corpora.json.RecordParse")
+@Label("JSON Record Parse")
+@Category({"GATE", "JSON"})
+@Description("A single JSON record read and unescaped")
+@Enabled(false)
+@StackTrace(false)
+class RecordParseEvent extends Event {
+
+  @Label("Text Path")
+  String textPath;
+
+  @Label("Characters")
+  @Description("Length of the record's text")
+  long characters;
+
+  @Label("Annotations")
+  int annotations;
+
+  static Object start() {
+    RecordParseEvent event = new RecordParseEvent();
+    if(!event.isEnabled()) return null;
+    event.begin();
+    return event;
+  }
+
+  static void finish(Object started, String textPath, long characters,
+      int annotations) {
+    RecordParseEvent event = (RecordParseEvent)started;
+    event.end();
+    if(event.shouldCommit()) {
+      event.textPath = textPath;
+      event.characters = characters;
+      event.annotations = annotations;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-thread scratch space reused from one document to the next, so that
+ * parsing many documents on the same thread (as a multi-threaded pipeline
+ * does) does not allocate fresh builders and tables for every document.
+ *
+ * Each accessor hands out its structure already cleared.  Nothing here may
+ * be kept beyond the parse that asked for it, and a thread must not use the
+ * same structure for two things at once.  Structures that have grown very
+ * large are dropped rather than cleared, so one huge document does not pin
+ * its buffers in memory for the lifetime of the thread.
+ */
+public final class ScratchBuffers {
+
+  /**
+   * Builders with more capacity than this are discarded after use.
+   */
+  static final int MAX_RETAINED_CHARS = 1 << 20;
+
+  private static final ThreadLocal<ScratchBuffers> LOCAL =
+      ThreadLocal.withInitial(ScratchBuffers::new);
+
+  private StringBuilder text = new StringBuilder(256);
+
+  private StringBuilder content = new StringBuilder(4096);
+
+  private final OffsetConverter.Builder offsets = new OffsetConverter.Builder(64);
+
+  private final List<JSONDocument> documents = new ArrayList<JSONDocument>();
+
+  private long[] starts = new long[64];
+
+  private ScratchBuffers() {
+  }
+
+  /**
+   * Get the scratch space belonging to the calling thread.
+   */
+  public static ScratchBuffers get() {
+    return LOCAL.get();
+  }
+
+  /**
+   * A builder for the text of a single JSON record.
+   */
+  public StringBuilder textBuilder() {
+    text = clear(text);
+    return text;
+  }
+
+  /**
+   * A builder for the concatenated content of a whole GATE document.
+   */
+  public StringBuilder contentBuilder() {
+    content = clear(content);
+    return content;
+  }
+
+  /**
+   * A builder for the offset conversion table of a single JSON record.
+   */
+  public OffsetConverter.Builder offsetsBuilder() {
+    offsets.reset();
+    return offsets;
+  }
+
+  /**
+   * A list to collect the records of one GATE document.
+   */
+  public List<JSONDocument> documents() {
+    documents.clear();
+    return documents;
+  }
+
+  /**
+   * An array to hold at least the given number of record start offsets.
+   */
+  public long[] starts(int minLength) {
+    if(starts.length < minLength) {
+      starts = Arrays.copyOf(starts, Math.max(minLength, starts.length * 2));
+    }
+    return starts;
+  }
+
+  /**
+   * Let go of any references to parsed records and of any structure that
+   * has grown too large to be worth keeping.  Called at the end of each
+   * parse.
+   */
+  public void release() {
+    documents.clear();
+    text = clear(text);
+    content = clear(content);
+    if(starts.length > MAX_RETAINED_CHARS / 8) starts = new long[64];
+    // the builder decides for itself how many events are worth keeping
+    offsets.reset();
+  }
+
+  private static StringBuilder clear(StringBuilder builder) {
+    if(builder.capacity() > MAX_RETAINED_CHARS) {
+      return new StringBuilder(256);
+    }
+    builder.setLength(0);
+    return builder;
+  }
+}
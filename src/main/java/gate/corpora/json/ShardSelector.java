@@ -0,0 +1,77 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+/**
+ * Selects one of a number of disjoint shards of a stream of JSON records,
+ * so that several independent processes can each take their own part of
+ * the same input without any coordination: process i of n uses
+ * <code>new ShardSelector(i, n)</code>, and every record is owned by
+ * exactly one of them.
+ *
+ * A record is assigned by a hash of its document ID, or of its position in
+ * the input when it has none.  The hash depends only on the characters of
+ * the ID, so the assignment is the same in every JVM and on every run.
+ */
+public final class ShardSelector {
+
+  /**
+   * The single shard holding every record.
+   */
+  public static final ShardSelector ALL = new ShardSelector(0, 1);
+
+  private final int index;
+
+  private final int count;
+
+  public ShardSelector(int index, int count) {
+    if(count < 1 || index < 0 || index >= count) {
+      throw new IllegalArgumentException("Shard " + index + " of " + count
+          + " does not exist, the index must be from 0 to " + (count - 1));
+    }
+    this.index = index;
+    this.count = count;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Does this shard hold every record?
+   */
+  public boolean isAll() {
+    return count == 1;
+  }
+
+  public boolean owns(String id) {
+    return count == 1 || owner(HyperLogLog.hash(id)) == index;
+  }
+
+  /**
+   * Is the record at the given position (counting from 0) in this shard?
+   */
+  public boolean owns(long ordinal) {
+    return count == 1 || owner(HyperLogLog.mix(ordinal)) == index;
+  }
+
+  private int owner(long hash) {
+    return (int)Long.remainderUnsigned(hash, count);
+  }
+
+  @Override
+  public String toString() {
+    return "shard " + index + " of " + count;
+  }
+}
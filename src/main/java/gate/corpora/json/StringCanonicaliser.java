@@ -0,0 +1,208 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe table used to share identical String instances
+ * between the feature maps built from many JSON records.  Field names are
+ * always canonicalised, values only if the {@link Policy} allows it.
+ *
+ * The table is direct-mapped: each string hashes to exactly one slot and a
+ * miss simply replaces whatever was there, so the table never grows beyond
+ * its initial capacity.  Slots hold weak references, so the table never
+ * keeps a string alive that is no longer referenced from a document.
+ */
+public class StringCanonicaliser {
+
+  /**
+   * Which values (as opposed to field names) should be canonicalised.
+   */
+  public enum Policy {
+    /** canonicalise field names only */
+    KEYS,
+    /**
+     * canonicalise field names, values no longer than the length limit, and
+     * all values of the "frequent" fields
+     */
+    SHORT,
+    /** canonicalise field names and all string values */
+    ALL
+  }
+
+  /** Default number of slots in the table */
+  public static final int DEFAULT_CAPACITY = 1 << 16;
+
+  /** Default maximum length of a value to be canonicalised under SHORT */
+  public static final int DEFAULT_MAX_VALUE_LENGTH = 32;
+
+  /**
+   * Fields of Twitter-style JSON whose values are typically repeated across
+   * many records regardless of their length.
+   */
+  public static final Set<String> DEFAULT_FREQUENT_FIELDS =
+      Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("lang",
+          "source", "time_zone", "location", "screen_name", "name", "url",
+          "expanded_url", "display_url", "type", "country_code",
+          "filter_level")));
+
+  private final AtomicReferenceArray<WeakReference<String>> table;
+
+  private final int mask;
+
+  private final Policy policy;
+
+  private final int maxValueLength;
+
+  private final Set<String> frequentFields;
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  public StringCanonicaliser(Policy policy) {
+    this(policy, DEFAULT_CAPACITY, DEFAULT_MAX_VALUE_LENGTH,
+        DEFAULT_FREQUENT_FIELDS);
+  }
+
+  /**
+   * @param policy which values should be canonicalised
+   * @param capacity the number of slots in the table, rounded up to the next
+   *          power of two
+   * @param maxValueLength values no longer than this are canonicalised under
+   *          the SHORT policy
+   * @param frequentFields fields whose values are always canonicalised under
+   *          the SHORT policy
+   */
+  public StringCanonicaliser(Policy policy, int capacity, int maxValueLength,
+      Collection<String> frequentFields) {
+    if(capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    int size = Integer.highestOneBit(capacity);
+    if(size < capacity) size <<= 1;
+    this.table = new AtomicReferenceArray<WeakReference<String>>(size);
+    this.mask = size - 1;
+    this.policy = policy;
+    this.maxValueLength = maxValueLength;
+    this.frequentFields = frequentFields == null
+        ? Collections.<String>emptySet()
+        : new HashSet<String>(frequentFields);
+  }
+
+  /**
+   * Parse a policy name as given in the "canonicalise" mime type parameter.
+   *
+   * @return the policy, or null if canonicalisation should be disabled
+   */
+  public static Policy parsePolicy(String name) {
+    if(name == null) return null;
+    String lower = name.trim().toLowerCase(Locale.ENGLISH);
+    if(lower.isEmpty() || lower.equals("false") || lower.equals("none")) {
+      return null;
+    }
+    if(lower.equals("true")) return Policy.SHORT;
+    return Policy.valueOf(lower.toUpperCase(Locale.ENGLISH));
+  }
+
+  public Policy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * Return the canonical instance of a JSON field name.
+   */
+  public String canonicaliseKey(String key) {
+    return key == null ? null : lookup(key);
+  }
+
+  /**
+   * Return the canonical instance of a string value if the policy says it
+   * should be shared, otherwise the value itself.
+   *
+   * @param field the name of the field holding this value (the enclosing
+   *          field for array elements), may be null
+   * @param value the string value
+   */
+  public String canonicaliseValue(String field, String value) {
+    if(value == null) return null;
+    switch(policy) {
+      case ALL:
+        return lookup(value);
+      case SHORT:
+        if(value.length() <= maxValueLength
+            || (field != null && frequentFields.contains(field))) {
+          return lookup(value);
+        }
+        return value;
+      default:
+        return value;
+    }
+  }
+
+  private String lookup(String str) {
+    int h = str.hashCode();
+    // spread the high bits down, as short strings differ mostly in the low
+    // bits of their hash codes
+    int slot = (h ^ (h >>> 16)) & mask;
+    WeakReference<String> ref = table.get(slot);
+    if(ref != null) {
+      String existing = ref.get();
+      if(existing != null && existing.equals(str)) {
+        hits.increment();
+        return existing;
+      }
+    }
+    misses.increment();
+    table.lazySet(slot, new WeakReference<String>(str));
+    return str;
+  }
+
+  /**
+   * The number of lookups that returned a previously seen instance.
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * The number of lookups that did not find an existing instance (and so
+   * stored the given one instead).
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public double getHitRatio() {
+    long h = hits.sum();
+    long total = h + misses.sum();
+    return total == 0 ? 0.0 : (double)h / total;
+  }
+
+  public void resetStatistics() {
+    hits.reset();
+    misses.reset();
+  }
+
+  @Override
+  public String toString() {
+    return "StringCanonicaliser: policy=" + policy + ",capacity="
+        + table.length() + ",hits=" + getHits() + ",misses=" + getMisses();
+  }
+}
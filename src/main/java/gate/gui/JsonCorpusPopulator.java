@@ -16,16 +16,32 @@ import java.awt.Dialog;
 import java.awt.event.ActionEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.ZipException;
 
 import javax.activation.MimeTypeParseException;
 import javax.swing.AbstractAction;
@@ -47,9 +63,11 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonParser.Feature;
 import com.fasterxml.jackson.core.JsonPointer;
 import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.filter.FilteringParserDelegate;
+import com.fasterxml.jackson.core.filter.JsonPointerBasedFilter;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import gate.Corpus;
 import gate.Document;
@@ -58,6 +76,8 @@ import gate.Factory;
 import gate.FeatureMap;
 import gate.Gate;
 import gate.corpora.MimeType;
+import gate.corpora.json.JsonMetrics;
+import gate.corpora.json.ShardSelector;
 import gate.creole.Plugin;
 import gate.creole.metadata.AutoInstance;
 import gate.creole.metadata.CreoleResource;
@@ -89,6 +109,13 @@ public class JsonCorpusPopulator extends ResourceHelper
 
   private static final int APPROVE = 1;
 
+  /**
+   * How many documents of each file may be read ahead of adding them.
+   */
+  private static final int QUEUE_SIZE = 64;
+
+  private static final Object END_OF_FILE = new Object();
+
   private void buildGUI() {
 
     dialog = new JDialog(MainFrame.getInstance(), "Populate from JSON...",
@@ -97,6 +124,8 @@ public class JsonCorpusPopulator extends ResourceHelper
     dialog.setDefaultCloseOperation(JDialog.HIDE_ON_CLOSE);
 
     fileChooser = new JFileChooser();
+    fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+    fileChooser.setMultiSelectionEnabled(true);
     
     MainFrame.getGuiRoots().add(dialog);
 
@@ -214,16 +243,14 @@ public class JsonCorpusPopulator extends ResourceHelper
 
 		new Thread(() -> {
 			try {
-
-				try (InputStream in = new FileInputStream(fileChooser.getSelectedFile());
-						GZIPInputStream gzin = new GZIPInputStream(in)) {
-					populate((Corpus) handle.getTarget(), gzin, mimeType, idPath.isEmpty() ? null : idPath);
-				} catch (ZipException zippy) {
-					try (InputStream in = new FileInputStream(fileChooser.getSelectedFile())) {
-						populate((Corpus) handle.getTarget(), in, mimeType, idPath.isEmpty() ? null : idPath);
-					}
+				List<String> paths = new ArrayList<String>();
+				for (File file : fileChooser.getSelectedFiles()) {
+					paths.add(file.getPath());
 				}
-			} catch (IOException bungle) {
+				populate((Corpus) handle.getTarget(), listFiles(paths.toArray(new String[paths.size()])),
+						mimeType, idPath.isEmpty() ? null : idPath, ShardSelector.ALL,
+						Runtime.getRuntime().availableProcessors());
+			} catch (IOException | InterruptedException bungle) {
 				bungle.printStackTrace();
 			}
 		}).start();
@@ -235,64 +262,389 @@ public class JsonCorpusPopulator extends ResourceHelper
 
   public void populate(Corpus corpus, InputStream inputStream, String mimeType,
       String idPath) throws IOException {
+    populate(corpus, inputStream, mimeType, idPath, ShardSelector.ALL);
+  }
 
-    ObjectMapper objectMapper;
+  /**
+   * Populate the corpus with only those records of the input that belong to
+   * the given shard, so that several processes can share out one input
+   * between them (see {@link ShardSelector}).  Records are assigned by
+   * document ID when an ID path is given, or by their position in the input
+   * otherwise.  Records of other shards are skipped over without being
+   * parsed into trees; where the ID is needed to decide, they are only
+   * buffered as tokens until it has been found.
+   */
+  public void populate(Corpus corpus, InputStream inputStream, String mimeType,
+      String idPath, ShardSelector shard) throws IOException {
+    try {
+      read(inputStream, mimeType, idPath, shard, new FileReport(null),
+          (document) -> add(corpus, document));
+    } catch(InterruptedException e) {
+      // only the consumer of the multi-file populate can be interrupted
+      throw new IllegalStateException(e);
+    }
+  }
 
-    JsonParser jsonParser;
+  /**
+   * Populate the corpus from a number of files, reading up to the given
+   * number of them at once.  Each file is streamed, gunzipped if it starts
+   * with the gzip magic bytes, and its documents are added to the corpus in
+   * the order of the files and of the records within them, so the result
+   * is the same however many threads are used.  A file that cannot be read
+   * does not stop the others; the report for each file gives its
+   * throughput and any failure, and is also logged.
+   *
+   * @see #listFiles(String...)
+   */
+  public List<FileReport> populate(Corpus corpus, List<File> files,
+      String mimeType, String idPath, ShardSelector shard, int threads)
+    throws InterruptedException {
+    if(threads < 1) {
+      throw new IllegalArgumentException("at least one thread is needed");
+    }
+    List<FileReport> reports = new ArrayList<FileReport>();
+    if(files.isEmpty()) return reports;
+
+    List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>();
+    ExecutorService pool = Executors.newFixedThreadPool(
+        Math.min(threads, files.size()), (runnable) -> {
+          Thread thread = new Thread(runnable, "JSON corpus populator");
+          thread.setDaemon(true);
+          return thread;
+        });
+    try {
+      // the pool starts the files in order, so the one being added to the
+      // corpus is always already being read
+      for(File file : files) {
+        FileReport report = new FileReport(file);
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_SIZE);
+        reports.add(report);
+        queues.add(queue);
+        pool.execute(() -> {
+          long start = System.nanoTime();
+          try(InputStream in = open(file)) {
+            read(in, mimeType, idPath, shard, report, (document) -> {
+              // time spent waiting for earlier files is not reading time
+              long waitStart = System.nanoTime();
+              queue.put(document);
+              report.waiting += System.nanoTime() - waitStart;
+            });
+          } catch(InterruptedException e) {
+            return;
+          } catch(Throwable e) {
+            report.failure = e;
+          }
+          report.nanos = System.nanoTime() - start - report.waiting;
+          try {
+            queue.put(END_OF_FILE);
+          } catch(InterruptedException e) {
+            // abandoned
+          }
+        });
+      }
 
-    JsonPointer idPointer = null;
+      for(int i = 0; i < files.size(); i++) {
+        FileReport report = reports.get(i);
+        BlockingQueue<Object> queue = queues.get(i);
+        Object next;
+        while((next = queue.take()) != END_OF_FILE) {
+          Document document = (Document)next;
+          try {
+            add(corpus, document);
+            report.documents++;
+          } catch(RuntimeException e) {
+            logger.warn("Failed to add a document from " + report.file, e);
+            JsonMetrics.get().populateError();
+            report.failedRecords.incrementAndGet();
+            discard(document);
+          }
+        }
+        if(report.failure != null) {
+          logger.warn("Failed to read " + report, report.failure);
+        } else {
+          logger.info("Populated " + report);
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+      // documents read ahead of a failure in adding them
+      for(BlockingQueue<Object> queue : queues) {
+        for(Object left : queue) {
+          if(left instanceof Document) Factory.deleteResource((Document)left);
+        }
+      }
+    }
+    return reports;
+  }
 
-    if(idPath != null) idPointer = JsonPointer.compile(idPath);
+  /**
+   * The files named by the given paths, in a fixed order: a file stands for
+   * itself, a directory for all the files beneath it, and a path containing
+   * any of the glob characters *?[{ for the files matching it, where *
+   * does not match across directories but ** does.  Each path's files are
+   * sorted by name and no file is listed twice.
+   */
+  public static List<File> listFiles(String... paths) throws IOException {
+    Set<File> files = new LinkedHashSet<File>();
+    for(String path : paths) {
+      File file = new File(path);
+      int glob = -1;
+      for(int i = 0; i < path.length() && glob == -1; i++) {
+        if("*?[{".indexOf(path.charAt(i)) != -1) glob = i;
+      }
+      if(file.isFile()) {
+        files.add(file);
+      } else if(file.isDirectory()) {
+        files.addAll(walk(file.toPath(), Integer.MAX_VALUE, null));
+      } else if(glob != -1) {
+        // walk from the last directory before the first glob character, only
+        // as deep as the pattern goes
+        int base = Math.max(path.lastIndexOf('/', glob),
+            path.lastIndexOf(File.separatorChar, glob));
+        String pattern = path.substring(base + 1);
+        int depth = pattern.contains("**") ? Integer.MAX_VALUE
+            : pattern.split("[/\\" + File.separatorChar + "]").length;
+        Path dir = Paths.get(base == -1 ? "." : path.substring(0, base + 1));
+        PathMatcher matcher =
+            FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        files.addAll(walk(dir, depth,
+            (candidate) -> matcher.matches(dir.relativize(candidate))));
+      } else {
+        throw new FileNotFoundException(path);
+      }
+    }
+    return new ArrayList<File>(files);
+  }
 
-    objectMapper = new ObjectMapper();
-    jsonParser = objectMapper.getFactory().createParser(inputStream)
-        .enable(Feature.AUTO_CLOSE_SOURCE);
-
-    // If the first token in the stream is the start of an array ("[") then
-    // assume the stream as a whole is an array of objects, one per document.
-    // To handle this, simply clear the token - The MappingIterator returned by
-    // readValues will cope with the rest in either form.
-    if(jsonParser.nextToken() == JsonToken.START_ARRAY) {
-      jsonParser.clearCurrentToken();
+  private static List<File> walk(Path dir, int depth, Predicate<Path> filter)
+    throws IOException {
+    try(Stream<Path> paths = Files.walk(dir, depth)) {
+      return paths.filter(Files::isRegularFile)
+          .filter((path) -> !path.getFileName().toString().startsWith("."))
+          .filter((path) -> filter == null || filter.test(path))
+          .sorted().map(Path::toFile).collect(Collectors.toList());
     }
+  }
 
-    MappingIterator<JsonNode> docIterator =
-        objectMapper.readValues(jsonParser, JsonNode.class);
+  /**
+   * Open a file, gunzipping it if it starts with the gzip magic bytes.
+   */
+  private static InputStream open(File file) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+    try {
+      in.mark(2);
+      int first = in.read();
+      int second = in.read();
+      in.reset();
+      if(first == 0x1f && second == 0x8b) {
+        in = new BufferedInputStream(new GZIPInputStream(in, 65536), 65536);
+      }
+      return in;
+    } catch(IOException | RuntimeException e) {
+      in.close();
+      throw e;
+    }
+  }
 
-    while(docIterator.hasNext()) {
-      JsonNode json = docIterator.next();
+  private static void add(Corpus corpus, Document document) {
+    corpus.add(document);
+    JsonMetrics.get().documentPopulated();
 
-      String docID = null;
+    if(corpus.getLRPersistenceId() != null) {
+      corpus.unloadDocument(document);
+      Factory.deleteResource(document);
+    }
+  }
 
-      if(idPointer != null) {
-        docID = json.at(idPointer).asText();
-        if(docID == null || docID.trim().isEmpty()) continue;
-      }
+  /**
+   * Delete a document that could not be added, if it was created at all.
+   */
+  private static void discard(Document document) {
+    if(document == null) return;
+    try {
+      Factory.deleteResource(document);
+    } catch(RuntimeException e) {
+      logger.warn("Failed to delete " + document.getName(), e);
+    }
+  }
 
-      FeatureMap docParams = Factory.newFeatureMap();
-      docParams.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME,
-          json.toString());
-      if(mimeType != null) {
-        docParams.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, mimeType);
-      }
-      try {
-        Document document =
-            (Document)Factory.createResource("gate.corpora.DocumentImpl",
-                docParams, Factory.newFeatureMap(), docID);
+  private interface DocumentConsumer {
+    void accept(Document document) throws InterruptedException;
+  }
+
+  /**
+   * Read the records of one input, creating a document for each one in the
+   * shard and passing it on.
+   */
+  private static void read(InputStream inputStream, String mimeType,
+      String idPath, ShardSelector shard, FileReport report,
+      DocumentConsumer consumer) throws IOException, InterruptedException {
+
+    ObjectMapper objectMapper;
+
+    JsonPointer idPointer = null;
 
-        corpus.add(document);
+    if(idPath != null) idPointer = JsonPointer.compile(idPath);
+
+    objectMapper = new ObjectMapper();
+    try(JsonParser jsonParser = objectMapper.getFactory().createParser(inputStream)
+        .enable(Feature.AUTO_CLOSE_SOURCE)) {
+
+      // If the first token in the stream is the start of an array ("[") then
+      // assume the stream as a whole is an array of objects, one per
+      // document, otherwise it is a sequence of objects.
+      JsonToken token = jsonParser.nextToken();
+      boolean array = token == JsonToken.START_ARRAY;
+      if(array) token = jsonParser.nextToken();
+
+      JsonMetrics metrics = JsonMetrics.get();
+      long ordinal = 0;
+
+      for(; token != null && !(array && token == JsonToken.END_ARRAY);
+          token = jsonParser.nextToken()) {
+        long record = ordinal++;
+        JsonNode json = null;
+        String docID = null;
+
+        if(idPointer == null) {
+          if(shard.owns(record)) {
+            json = objectMapper.readTree(jsonParser);
+          } else {
+            jsonParser.skipChildren();
+          }
+        } else if(shard.isAll()) {
+          json = objectMapper.readTree(jsonParser);
+          docID = json.at(idPointer).asText();
+        } else {
+          // find the ID before deciding whether to build the tree
+          TokenBuffer buffer = new TokenBuffer(jsonParser);
+          buffer.copyCurrentStructure(jsonParser);
+          docID = findID(buffer, idPointer);
+          if(docID != null && !docID.trim().isEmpty() && shard.owns(docID)) {
+            json = objectMapper.readTree(buffer.asParser());
+          }
+        }
+
+        long offset = jsonParser.getCurrentLocation().getByteOffset();
+        if(offset > report.bytes) {
+          metrics.bytesPopulated(offset - report.bytes);
+          report.bytes = offset;
+        }
 
-        if(corpus.getLRPersistenceId() != null) {
-          corpus.unloadDocument(document);
+        if(json == null) continue;
+        if(idPointer != null && (docID == null || docID.trim().isEmpty())) continue;
+
+        FeatureMap docParams = Factory.newFeatureMap();
+        docParams.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME,
+            json.toString());
+        if(mimeType != null) {
+          docParams.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, mimeType);
+        }
+        Document document = null;
+        try {
+          document =
+              (Document)Factory.createResource("gate.corpora.DocumentImpl",
+                  docParams, Factory.newFeatureMap(), docID);
+          consumer.accept(document);
+        } catch(InterruptedException e) {
           Factory.deleteResource(document);
+          throw e;
+        } catch(Exception e) {
+          // TODO should this be a warning or an exception etc.
+          logger.warn("Failed to correctly parse JSON document", e);
+          metrics.populateError();
+          report.failedRecords.incrementAndGet();
+          discard(document);
         }
-      } catch(Exception e) {
-        // TODO should this be a warning or an exception etc.
-        logger.warn("Failed to correctly parse JSON document", e);
       }
     }
   }
 
+  /**
+   * The value at the pointer in a buffered record, as text, or "" if it is
+   * missing or not a scalar (as JsonNode.asText would give).
+   */
+  private static String findID(TokenBuffer buffer, JsonPointer idPointer)
+    throws IOException {
+    try(JsonParser parser = new FilteringParserDelegate(buffer.asParser(),
+        new JsonPointerBasedFilter(idPointer), false, false)) {
+      JsonToken token = parser.nextToken();
+      return token != null && token.isScalarValue() && token != JsonToken.VALUE_NULL
+          ? parser.getText() : "";
+    }
+  }
+
+  /**
+   * What became of one file of a multi-file populate.
+   */
+  public static class FileReport {
+
+    private final File file;
+
+    private int documents = 0;
+
+    private final AtomicInteger failedRecords = new AtomicInteger();
+
+    private long bytes = 0;
+
+    private long waiting;
+
+    private long nanos;
+
+    private Throwable failure;
+
+    private FileReport(File file) {
+      this.file = file;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    /**
+     * The number of documents added to the corpus.
+     */
+    public int getDocuments() {
+      return documents;
+    }
+
+    /**
+     * The number of records that could not be made into documents.
+     */
+    public int getFailedRecords() {
+      return failedRecords.get();
+    }
+
+    /**
+     * The number of (uncompressed) bytes of JSON read.
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * The time spent reading the file, not counting any time spent waiting
+     * for the documents of earlier files to be added to the corpus.
+     */
+    public long getNanos() {
+      return nanos;
+    }
+
+    /**
+     * Why the file could not be read to the end, or null if it was.
+     */
+    public Throwable getFailure() {
+      return failure;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %d documents (%d failed) from %.1fMB in %dms, %.1fMB/s",
+          file, documents, failedRecords.get(), bytes / 1e6, nanos / 1000000,
+          bytes * 1e3 / Math.max(1, nanos));
+    }
+  }
+
   @Override
   public void pluginLoaded(Plugin plugin) {
     updateMimeTypeList();
@@ -0,0 +1,134 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import gate.Corpus;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.GateConstants;
+import gate.Utils;
+import gate.corpora.export.GATEBinaryJsonExporter;
+import gate.corpora.export.GATEJsonExporter;
+import gate.corpora.json.BinaryJson;
+import gate.corpora.json.JsonMetrics;
+import gate.corpora.json.TweetGenerator;
+import gate.creole.ResourceInstantiationException;
+import gate.test.GATEPluginTestCase;
+
+/**
+ * Round trips a corpus through the binary JSON exporter and format in each
+ * of the binary encodings.
+ */
+public class GATEBinaryJSONFormatTest extends GATEPluginTestCase {
+
+  public void testRoundTrip() throws Exception {
+    Corpus corpus = Factory.newCorpus("binary");
+    File text = File.createTempFile("binary", ".json");
+    TweetGenerator generator = new TweetGenerator(47).supplementaryRate(0.1);
+    try {
+      generator.write(text, 20);
+      corpus.add(Factory.newDocument(text.toURI().toURL(), "UTF-8"));
+      FeatureMap options = Factory.newFeatureMap();
+      options.put("entitiesAnnotationSetName", GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME);
+      options.put("annotationTypes", new LinkedHashSet<String>(
+          Arrays.asList("hashtags", "user_mentions", "urls")));
+      options.put("documentAnnotationASName", GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME);
+      options.put("documentAnnotationType", "Object");
+      options.put("exportThreads", 2);
+
+      for(String encoding : new String[] {BinaryJson.SMILE, BinaryJson.CBOR}) {
+        options.put("binaryEncoding", encoding);
+        File binary = File.createTempFile("binary", "." + (encoding.equals(BinaryJson.SMILE) ? "sml" : "cbor"));
+        try {
+          new GATEBinaryJsonExporter().export(corpus, binary, options);
+          assertTrue(binary.length() < text.length());
+          long bytes = JsonMetrics.get().getBytesParsed();
+          Document doc = Factory.newDocument(binary.toURI().toURL(), "UTF-8");
+          try {
+            assertEquals(encoding, bytes + binary.length(),
+                JsonMetrics.get().getBytesParsed());
+            Document original = corpus.get(0);
+            assertEquals(encoding, original.getContent().toString(),
+                doc.getContent().toString());
+            for(String type : new String[] {"Object", "hashtags", "user_mentions", "urls"}) {
+              assertEquals(encoding + " " + type,
+                  original.getAnnotations(GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME).get(type).size(),
+                  doc.getAnnotations(GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME).get(type).size());
+            }
+            assertEquals(Utils.start(doc.getAnnotations(GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME)
+                .get("hashtags")), Utils.start(original.getAnnotations(
+                    GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME).get("hashtags")));
+          } finally {
+            Factory.deleteResource(doc);
+          }
+        } finally {
+          binary.delete();
+        }
+      }
+    } finally {
+      for(Document doc : new ArrayList<Document>(corpus)) {
+        Factory.deleteResource(doc);
+      }
+      Factory.deleteResource(corpus);
+      text.delete();
+    }
+  }
+
+  public void testShardingRejected() throws Exception {
+    Corpus corpus = Factory.newCorpus("binary");
+    File binary = File.createTempFile("binary", ".sml");
+    try {
+      FeatureMap options = Factory.newFeatureMap();
+      options.put("shardDocuments", 10L);
+      new GATEBinaryJsonExporter().export(corpus, binary, options);
+      fail("binary JSON was exported in shards");
+    } catch(IOException e) {
+      // expected, rather than one unsharded file
+    } finally {
+      Factory.deleteResource(corpus);
+      binary.delete();
+    }
+  }
+
+  public void testStringContentRejected() throws Exception {
+    // binary data cannot survive being decoded as text, so a document
+    // created from a string fails rather than parsing garbage
+    FeatureMap params = Factory.newFeatureMap();
+    params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME, "not smile");
+    params.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, BinaryJson.SMILE_MIME_TYPE);
+    try {
+      Factory.deleteResource(Factory.createResource(
+          DocumentImpl.class.getName(), params));
+      fail("binary JSON was read from a string");
+    } catch(ResourceInstantiationException e) {
+      // expected
+    }
+  }
+
+  public void testTextExportUnchanged() throws Exception {
+    // the text exporter still writes newline separated JSON
+    Document doc = Factory.newDocument("hello world");
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new GATEJsonExporter().export(doc, out, Factory.newFeatureMap());
+      assertTrue(out.toString("UTF-8").startsWith("{\"text\":\"hello world\""));
+    } finally {
+      Factory.deleteResource(doc);
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import gate.Annotation;
+import gate.Document;
+import gate.DocumentFormat;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.GateConstants;
+import gate.Utils;
+import gate.test.GATEPluginTestCase;
+
+/**
+ * Parses the same JSON with one shared format instance from several threads
+ * at once, checking every thread gets exactly the result of a
+ * single-threaded parse.  Run with -Dallocation.report=true to print how
+ * throughput scales.
+ */
+public class GATEJSONFormatConcurrencyTest extends GATEPluginTestCase {
+
+  private static final int DOCUMENTS = 64;
+
+  private static final int TWEETS_PER_DOCUMENT = 20;
+
+  private static final String MIME_TYPE =
+      "text/json;canonicalise=short;offset-units=codepoints";
+
+  public void testConcurrentUnpackMarkup() throws Exception {
+    DocumentFormat format =
+        DocumentFormat.getDocumentFormat(new MimeType("text", "json"));
+    assertTrue(format instanceof GATEJSONFormat);
+
+    List<String> sources = sources();
+    List<String> expected = new ArrayList<String>();
+    for(Document doc : rawDocuments(sources)) {
+      format.unpackMarkup(doc);
+      expected.add(signature(doc));
+      Factory.deleteResource(doc);
+    }
+
+    int maxThreads = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    for(int threads = 1; threads <= maxThreads; threads *= 2) {
+      List<Document> docs = rawDocuments(sources);
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+        long startTime = System.nanoTime();
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for(final Document doc : docs) {
+          results.add(pool.submit(() -> {
+            format.unpackMarkup(doc);
+            return signature(doc);
+          }));
+        }
+        for(int i = 0; i < results.size(); i++) {
+          assertEquals("document " + i + " with " + threads + " threads",
+              expected.get(i), results.get(i).get());
+        }
+        long elapsed = System.nanoTime() - startTime;
+        if(Boolean.getBoolean("allocation.report")) {
+          System.out.println("Unpacked " + docs.size() + " documents on "
+              + threads + " thread(s) in " + (elapsed / 1000000) + "ms");
+        }
+      } finally {
+        pool.shutdown();
+        for(Document doc : docs) {
+          Factory.deleteResource(doc);
+        }
+      }
+    }
+  }
+
+  /**
+   * The JSON content of each test document: a run of tweets, one per line,
+   * each a copy of the sample tweet with its own id.
+   */
+  private List<String> sources() throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+    ObjectNode tweet;
+    try(InputStream in = getClass().getResourceAsStream("json/tweet.json")) {
+      tweet = (ObjectNode)mapper.readTree(in);
+    }
+    List<String> sources = new ArrayList<String>();
+    for(int d = 0; d < DOCUMENTS; d++) {
+      StringBuilder json = new StringBuilder();
+      for(int t = 0; t < TWEETS_PER_DOCUMENT; t++) {
+        tweet.put("id", (long)d * TWEETS_PER_DOCUMENT + t);
+        json.append(mapper.writeValueAsString(tweet)).append('\n');
+      }
+      sources.add(json.toString());
+    }
+    return sources;
+  }
+
+  private List<Document> rawDocuments(List<String> sources) throws Exception {
+    List<Document> docs = new ArrayList<Document>();
+    for(String source : sources) {
+      FeatureMap params = Factory.newFeatureMap();
+      params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME, source);
+      params.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, MIME_TYPE);
+      params.put(Document.DOCUMENT_MARKUP_AWARE_PARAMETER_NAME, Boolean.FALSE);
+      docs.add((Document)Factory.createResource(DocumentImpl.class.getName(),
+          params, null, null));
+    }
+    return docs;
+  }
+
+  private static String signature(Document doc) {
+    StringBuilder buf = new StringBuilder(doc.getContent().toString());
+    for(Annotation a : Utils.inDocumentOrder(
+        doc.getAnnotations(GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME))) {
+      buf.append('\n').append(a.getType()).append(' ')
+          .append(a.getStartNode().getOffset()).append(' ')
+          .append(a.getEndNode().getOffset()).append(' ')
+          .append(a.getFeatures());
+    }
+    return buf.toString();
+  }
+}
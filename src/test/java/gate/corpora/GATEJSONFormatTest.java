@@ -0,0 +1,73 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora;
+
+import gate.Annotation;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.GateConstants;
+import gate.Utils;
+import gate.corpora.json.LazyFeatureMap;
+import gate.creole.ResourceInstantiationException;
+import gate.test.GATEPluginTestCase;
+
+public class GATEJSONFormatTest extends GATEPluginTestCase {
+
+  private static final String JSON = "{\"text\":\"\\uD83D\\uDE00 #a\","
+      + "\"entities\":{\"hashtags\":[{\"text\":\"a\",\"indices\":[3,5]}]}}";
+
+  public void testBadParameterLeavesOthers() throws Exception {
+    // the bad canonicalise value must not stop offset-units being read
+    Document doc = document("text/json;canonicalise=bogus;offset-units=utf16", null);
+    try {
+      assertNull(doc.getFeatures().get("parsingError"));
+      Annotation hashtag = doc.getAnnotations(
+          GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME).get("hashtags").iterator().next();
+      assertEquals("#a", Utils.stringFor(doc, hashtag));
+    } finally {
+      Factory.deleteResource(doc);
+    }
+  }
+
+  public void testLazyEntityFeatures() throws Exception {
+    Document doc = document("text/json;offset-units=utf16;lazy-entity-features=true", null);
+    try {
+      Annotation hashtag = doc.getAnnotations(
+          GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME).get("hashtags").iterator().next();
+      LazyFeatureMap features = (LazyFeatureMap)hashtag.getFeatures();
+      assertFalse(features.isMaterialised());
+      assertEquals("a", features.get("text"));
+      assertTrue(features.isMaterialised());
+    } finally {
+      Factory.deleteResource(doc);
+    }
+  }
+
+  public void testBadParameterThrows() throws Exception {
+    FeatureMap features = Factory.newFeatureMap();
+    features.put(GateConstants.THROWEX_FORMAT_PROPERTY_NAME, Boolean.TRUE);
+    try {
+      Factory.deleteResource(document("text/json;offset-units=bytes", features));
+      fail("bad offset-units accepted");
+    } catch(ResourceInstantiationException e) {
+      // expected
+    }
+  }
+
+  private static Document document(String mimeType, FeatureMap features)
+    throws ResourceInstantiationException {
+    FeatureMap params = Factory.newFeatureMap();
+    params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME, JSON);
+    params.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, mimeType);
+    return (Document)Factory.createResource(DocumentImpl.class.getName(),
+        params, features, null);
+  }
+}
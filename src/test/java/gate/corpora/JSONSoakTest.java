@@ -0,0 +1,138 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import gate.Corpus;
+import gate.DataStore;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.GateConstants;
+import gate.corpora.export.GATEJsonExporter;
+import gate.corpora.json.TweetGenerator;
+import gate.gui.JsonCorpusPopulator;
+import gate.test.GATEPluginTestCase;
+
+/**
+ * Generates a file of synthetic tweets, populates a datastore corpus from
+ * it and exports the corpus again, checking the text and entities survive
+ * the round trip and reporting the sustained rate and peak heap of each
+ * stage.  The number of tweets is taken from the soak.tweets system
+ * property, so a long soak is just
+ * <code>mvn test -Dtest=JSONSoakTest -Dsoak.tweets=1000000</code>.
+ */
+public class JSONSoakTest extends GATEPluginTestCase {
+
+  private static final int DEFAULT_TWEETS = 500;
+
+  public void testPopulateAndExport() throws Exception {
+    int tweets = Integer.getInteger("soak.tweets", DEFAULT_TWEETS);
+    TweetGenerator generator = new TweetGenerator(42).escapeRate(0.02)
+        .supplementaryRate(0.05).quoteDepth(1).duplicateRate(0.01);
+
+    File input = File.createTempFile("soak", ".jsonl.gz");
+    File output = File.createTempFile("soak-export", ".json.gz");
+    File dir = File.createTempFile("soak", ".ds");
+    dir.delete();
+    DataStore ds = Factory.createDataStore("gate.persist.SerialDataStore",
+        dir.toURI().toURL().toString());
+    try {
+      long start = System.nanoTime();
+      generator.write(input, tweets);
+      report("Generated", tweets, start);
+
+      Corpus corpus = (Corpus)ds.adopt(Factory.newCorpus("soak"));
+      ds.sync(corpus);
+      resetPeakHeap();
+      start = System.nanoTime();
+      try(InputStream in = new GZIPInputStream(new FileInputStream(input))) {
+        new JsonCorpusPopulator().populate(corpus, in, "text/json", null);
+      }
+      corpus.sync();
+      report("Populated", tweets, start);
+      assertEquals(tweets, corpus.size());
+
+      FeatureMap options = Factory.newFeatureMap();
+      options.put("entitiesAnnotationSetName", GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME);
+      options.put("annotationTypes", new LinkedHashSet<String>(
+          Arrays.asList("hashtags", "user_mentions", "urls")));
+      options.put("documentAnnotationASName", GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME);
+      options.put("documentAnnotationType", "Object");
+      options.put("exportThreads", 2);
+      options.put("prefetchDocuments", 8);
+      options.put("gzipOutput", true);
+      resetPeakHeap();
+      start = System.nanoTime();
+      new GATEJsonExporter().export(corpus, output, options);
+      report("Exported", tweets, start);
+
+      ObjectMapper mapper = new ObjectMapper();
+      int count = 0;
+      try(BufferedReader reader = new BufferedReader(new InputStreamReader(
+          new GZIPInputStream(new FileInputStream(output)), StandardCharsets.UTF_8))) {
+        String line;
+        while((line = reader.readLine()) != null) {
+          JsonNode exported = mapper.readTree(line);
+          JsonNode original = generator.tweet(count);
+          assertEquals("tweet " + count, original.get("text"), exported.get("text"));
+          for(String type : new String[] {"hashtags", "user_mentions", "urls"}) {
+            JsonNode expected = original.get("entities").get(type);
+            JsonNode actual = exported.get("entities").get(type);
+            assertEquals("tweet " + count + " " + type, expected.size(), actual.size());
+            for(int i = 0; i < expected.size(); i++) {
+              assertEquals("tweet " + count + " " + type,
+                  expected.get(i).get("indices"), actual.get(i).get("indices"));
+            }
+          }
+          count++;
+        }
+      }
+      assertEquals(tweets, count);
+      Factory.deleteResource(corpus);
+    } finally {
+      ds.delete();
+      input.delete();
+      output.delete();
+    }
+  }
+
+  private static void resetPeakHeap() {
+    System.gc();
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if(pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+    }
+  }
+
+  private static void report(String stage, int tweets, long start) {
+    long elapsed = System.nanoTime() - start;
+    long peak = 0;
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if(pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+    }
+    System.out.println(String.format("%s %d tweets in %dms: %.0f docs/sec, peak heap %dMB",
+        stage, tweets, elapsed / 1000000, tweets * 1e9 / Math.max(1, elapsed),
+        peak >> 20));
+  }
+}
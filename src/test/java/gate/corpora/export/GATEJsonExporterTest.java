@@ -0,0 +1,568 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.LinkedHashSet;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Corpus;
+import gate.DataStore;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.GateConstants;
+import gate.Utils;
+import gate.corpora.SerialCorpusImpl;
+import gate.corpora.json.OffsetUnit;
+import gate.test.GATEPluginTestCase;
+
+public class GATEJsonExporterTest extends GATEPluginTestCase {
+
+  private static final int DOCUMENTS = 40;
+
+  private static final int TWEETS_PER_DOCUMENT = 5;
+
+  private Corpus corpus;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    corpus = Factory.newCorpus("export test");
+    ObjectMapper mapper = new ObjectMapper();
+    ObjectNode tweet;
+    try(InputStream in = getClass().getResourceAsStream("/gate/corpora/json/tweet.json")) {
+      tweet = (ObjectNode)mapper.readTree(in);
+    }
+    for(int d = 0; d < DOCUMENTS; d++) {
+      StringBuilder json = new StringBuilder();
+      for(int t = 0; t < TWEETS_PER_DOCUMENT; t++) {
+        tweet.put("id", (long)d * TWEETS_PER_DOCUMENT + t);
+        json.append(mapper.writeValueAsString(tweet)).append('\n');
+      }
+      FeatureMap params = Factory.newFeatureMap();
+      params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME, json.toString());
+      params.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, "text/json");
+      Document doc = (Document)Factory.createResource(
+          "gate.corpora.DocumentImpl", params);
+      doc.getFeatures().put("number", d);
+      corpus.add(doc);
+    }
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    for(Document doc : corpus) {
+      Factory.deleteResource(doc);
+    }
+    Factory.deleteResource(corpus);
+  }
+
+  private FeatureMap options(boolean asArray, boolean documentAnnotations) {
+    FeatureMap options = Factory.newFeatureMap();
+    options.put("exportAsArray", asArray);
+    options.put("annotationTypes", new LinkedHashSet<String>(Arrays.asList(
+        GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME + ":hashtags",
+        GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME + ":user_mentions",
+        GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME + ":urls")));
+    if(documentAnnotations) {
+      options.put("documentAnnotationASName", GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME);
+      options.put("documentAnnotationType", "Object");
+    }
+    return options;
+  }
+
+  private String export(Corpus corpus, FeatureMap options) throws Exception {
+    return new String(exportBytes(corpus, options), StandardCharsets.UTF_8);
+  }
+
+  private byte[] exportBytes(Corpus corpus, FeatureMap options) throws Exception {
+    GATEJsonExporter exporter = new GATEJsonExporter();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    exporter.export(corpus, out, options);
+    return out.toByteArray();
+  }
+
+  private static byte[] gunzip(byte[] compressed) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try(InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      byte[] buf = new byte[4096];
+      int n;
+      while((n = in.read(buf)) > 0) {
+        out.write(buf, 0, n);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  public void testParallelExportMatchesSequential() throws Exception {
+    for(boolean asArray : new boolean[] {false, true}) {
+      for(boolean documentAnnotations : new boolean[] {false, true}) {
+        FeatureMap options = options(asArray, documentAnnotations);
+        String sequential = export(corpus, options);
+        assertTrue(sequential.contains(":hashtags\":[{\"indices\":[52,58]"));
+
+        options.put("exportThreads", 4);
+        // small enough that the writer has to wait on the workers
+        options.put("maxBufferedBytes", 10000L);
+        String parallel = export(corpus, options);
+        assertEquals("asArray=" + asArray + ", documentAnnotations="
+            + documentAnnotations, sequential, parallel);
+      }
+    }
+  }
+
+  public void testParallelExportOfEmptyCorpus() throws Exception {
+    Corpus empty = Factory.newCorpus("empty");
+    try {
+      for(boolean asArray : new boolean[] {false, true}) {
+        FeatureMap options = options(asArray, false);
+        String sequential = export(empty, options);
+        options.put("exportThreads", "3");
+        assertEquals(sequential, export(empty, options));
+      }
+    } finally {
+      Factory.deleteResource(empty);
+    }
+  }
+
+  public void testPrefetchingFromDataStore() throws Exception {
+    FeatureMap options = options(false, false);
+    String expected = export(corpus, options);
+
+    File dir = File.createTempFile("json-export", ".ds");
+    dir.delete();
+    DataStore ds = Factory.createDataStore("gate.persist.SerialDataStore",
+        dir.toURI().toURL().toString());
+    try {
+      SerialCorpusImpl persistent = (SerialCorpusImpl)ds.adopt(corpus);
+      ds.sync(persistent);
+      for(int threads : new int[] {1, 4}) {
+        for(int i = 0; i < persistent.size(); i++) {
+          persistent.unloadDocument(i);
+        }
+        assertFalse(persistent.isDocumentLoaded(0));
+        options.put("exportThreads", threads);
+        options.put("prefetchDocuments", 3);
+        assertEquals("threads=" + threads, expected, export(persistent, options));
+        for(int i = 0; i < persistent.size(); i++) {
+          assertFalse("document " + i + " left loaded", persistent.isDocumentLoaded(i));
+        }
+      }
+      Factory.deleteResource(persistent);
+    } finally {
+      ds.delete();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testIncrementalExport() throws Exception {
+    File dir = File.createTempFile("json-export", ".ds");
+    dir.delete();
+    File manifestFile = File.createTempFile("json-export", "-manifest.json");
+    manifestFile.delete();
+    DataStore ds = Factory.createDataStore("gate.persist.SerialDataStore",
+        dir.toURI().toURL().toString());
+    try {
+      SerialCorpusImpl persistent = (SerialCorpusImpl)ds.adopt(corpus);
+      ds.sync(persistent);
+      for(int i = 0; i < persistent.size(); i++) {
+        persistent.unloadDocument(i);
+      }
+      FeatureMap options = options(false, false);
+      options.put("incrementalManifest", manifestFile.toURI().toURL());
+      String first = export(persistent, options);
+      assertEquals(DOCUMENTS, first.split("\n").length);
+      Map<String, Object> manifest = new ObjectMapper().readValue(manifestFile, Map.class);
+      assertEquals(DOCUMENTS, ((Map<?, ?>)manifest.get("documents")).size());
+
+      // nothing changed, so nothing written and nothing loaded
+      assertEquals("", export(persistent, options));
+      manifest = new ObjectMapper().readValue(manifestFile, Map.class);
+      assertEquals(DOCUMENTS, ((Number)manifest.get("unchanged")).intValue());
+
+      Document changed = persistent.get(3);
+      changed.getFeatures().put("number", "changed");
+      changed.sync();
+      persistent.unloadDocument(3);
+      Object removedId = persistent.getDocumentPersistentID(7);
+      persistent.remove(7);
+      persistent.sync();
+      // with different settings the documents are loaded again, but only
+      // the changed one is written
+      options.put("excludeFeatures", new HashSet<String>(Arrays.asList("no-such-feature")));
+      String third = export(persistent, options);
+      assertTrue(third.contains("\"number\":\"changed\""));
+      assertEquals(1, third.split("\n").length);
+      manifest = new ObjectMapper().readValue(manifestFile, Map.class);
+      assertEquals(Arrays.asList(removedId.toString()), manifest.get("deleted"));
+      assertEquals(DOCUMENTS - 1, ((Map<?, ?>)manifest.get("documents")).size());
+      for(int i = 0; i < persistent.size(); i++) {
+        assertFalse("document " + i + " left loaded", persistent.isDocumentLoaded(i));
+      }
+
+      // options that only change how the export runs keep the manifest
+      options.put("exportThreads", 3);
+      options.put("prefetchDocuments", 2);
+      options.put("outputBufferSize", 1024);
+      assertEquals("", export(persistent, options));
+      manifest = new ObjectMapper().readValue(manifestFile, Map.class);
+      assertEquals(DOCUMENTS - 1, ((Number)manifest.get("unchanged")).intValue());
+      assertEquals(Arrays.asList(), manifest.get("deleted"));
+      Factory.deleteResource(persistent);
+    } finally {
+      ds.delete();
+      manifestFile.delete();
+    }
+  }
+
+  public void testGzipOutput() throws Exception {
+    for(int threads : new int[] {1, 4}) {
+      FeatureMap options = options(true, false);
+      options.put("exportThreads", threads);
+      String expected = export(corpus, options);
+
+      options.put("gzipOutput", Boolean.TRUE);
+      options.put("outputBufferSize", 1000);
+      byte[] compressed = exportBytes(corpus, options);
+      assertEquals(expected, new String(gunzip(compressed), StandardCharsets.UTF_8));
+
+      options.put("compressionThreads", 3);
+      compressed = exportBytes(corpus, options);
+      assertEquals(expected, new String(gunzip(compressed), StandardCharsets.UTF_8));
+    }
+  }
+
+  public void testMultiMemberGzip() throws Exception {
+    byte[] data = export(corpus, options(false, true)).getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try(OutputStream out = new ParallelGzipOutputStream(compressed, 3, 1000)) {
+      out.write(data, 0, 10);
+      out.write(data[10]);
+      out.write(data, 11, data.length - 11);
+    }
+    assertTrue(Arrays.equals(data, gunzip(compressed.toByteArray())));
+
+    compressed.reset();
+    new ParallelGzipOutputStream(compressed, 2, 1000).close();
+    assertEquals(0, gunzip(compressed.toByteArray()).length);
+  }
+
+  /**
+   * A document of random letters with random, often overlapping "Span",
+   * "Token" and "Other" annotations in the default set.  No two "Token" or
+   * "Other" annotations share a span, as the order of such ties is not
+   * defined by the range queries the tests compare against.
+   */
+  private static Document randomDocument(long seed) throws Exception {
+    Random random = new Random(seed);
+    StringBuilder text = new StringBuilder();
+    for(int i = 0; i < 2000; i++) {
+      text.append((char)('a' + random.nextInt(26)));
+    }
+    Document doc = Factory.newDocument(text.toString());
+    AnnotationSet annots = doc.getAnnotations();
+    for(int i = 0; i < 60; i++) {
+      long start = random.nextInt(1900);
+      Utils.addAnn(annots, start, start + random.nextInt(100), "Span",
+          Utils.featureMap("n", i));
+    }
+    Utils.addAnn(annots, 500, 500, "Span", Utils.featureMap("n", "empty"));
+    Set<String> spans = new HashSet<String>();
+    for(int i = 0; i < 1000; i++) {
+      long start = random.nextInt(2000);
+      long end = Math.min(2000, start + random.nextInt(i % 10 == 0 ? 150 : 8));
+      String type = i % 2 == 0 ? "Token" : "Other";
+      if(spans.add(type + start + ":" + end)) {
+        Utils.addAnn(annots, start, end, type, Utils.featureMap("n", i));
+      }
+    }
+    return doc;
+  }
+
+  public void testStreamingAnnotations() throws Exception {
+    Document doc = randomDocument(35);
+    try {
+      FeatureMap options = Factory.newFeatureMap();
+      options.put("annotationTypes", new LinkedHashSet<String>(Arrays.asList(
+          "Token", ":Other", "Missing")));
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      new GATEJsonExporter().export(doc, expected, options);
+      options.put("streamAnnotations", Boolean.TRUE);
+      ByteArrayOutputStream actual = new ByteArrayOutputStream();
+      new GATEJsonExporter().export(doc, actual, options);
+      assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+      assertEquals(doc.getAnnotations().get("Token").size(), new OffsetOrderedAnnotations(
+          doc.getAnnotations(), "Token").size());
+    } finally {
+      Factory.deleteResource(doc);
+    }
+
+    FeatureMap options = options(false, false);
+    String expected = export(corpus, options);
+    options.put("streamAnnotations", "true");
+    assertEquals(expected, export(corpus, options));
+  }
+
+  /**
+   * Document annotations that overlap and nest, and annotations that cross
+   * their boundaries, must be assigned exactly as range queries on the
+   * annotation set would assign them.
+   */
+  public void testDocumentAnnotationAssignment() throws Exception {
+    Document doc = randomDocument(34);
+    try {
+      AnnotationSet annots = doc.getAnnotations();
+      FeatureMap options = Factory.newFeatureMap();
+      options.put("annotationTypes", new LinkedHashSet<String>(Arrays.asList("Token", "Other")));
+      options.put("documentAnnotationASName", "");
+      options.put("documentAnnotationType", "Span");
+      ByteArrayOutputStream actual = new ByteArrayOutputStream();
+      new GATEJsonExporter().export(doc, actual, options);
+
+      // the same thing, one range query per document annotation
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      try(JsonGenerator generator =
+          new GATEJsonExporter().openGenerator(expected, options)) {
+        JsonDocumentWriter writer = new JsonDocumentWriter(OffsetUnit.CODEPOINTS);
+        for(Annotation span : Utils.inDocumentOrder(annots.get("Span"))) {
+          Map<String, Collection<Annotation>> covered = new HashMap<>();
+          for(String type : new String[] {"Token", "Other"}) {
+            covered.put(type, Utils.inDocumentOrder(annots.get(type)
+                .getContained(Utils.start(span), Utils.end(span))));
+          }
+          writer.writeDocument(doc, Utils.start(span), Utils.end(span), covered,
+              span.getFeatures(), generator);
+        }
+      }
+      assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+    } finally {
+      Factory.deleteResource(doc);
+    }
+  }
+
+  public void testShardedExport() throws Exception {
+    File dir = Files.createTempDirectory("json-shards").toFile();
+    try {
+      FeatureMap options = options(false, false);
+      String expected = export(corpus, options);
+
+      options.put("shardDocuments", 7L);
+      options.put("exportThreads", 3);
+      new GATEJsonExporter().export(corpus, new File(dir, "tweets.json"), options);
+      assertFalse(new File(dir, "tweets.json").exists());
+
+      JsonNode manifest = new ObjectMapper().readTree(new File(dir, "tweets-manifest.json"));
+      assertEquals(DOCUMENTS, manifest.get("documents").asInt());
+      JsonNode shards = manifest.get("shards");
+      assertEquals(6, shards.size());
+      StringBuilder joined = new StringBuilder();
+      for(int i = 0; i < shards.size(); i++) {
+        JsonNode shard = shards.get(i);
+        assertEquals(String.format("tweets-%05d.json", i), shard.get("name").asText());
+        assertEquals(i < 5 ? 7 : 5, shard.get("documents").asInt());
+        File file = new File(dir, shard.get("name").asText());
+        assertEquals(file.length(), shard.get("fileBytes").asLong());
+        // uncompressed, the file is the documents plus a newline between each
+        assertEquals(file.length() - (shard.get("documents").asLong() - 1),
+            shard.get("jsonBytes").asLong());
+        if(i > 0) joined.append('\n');
+        joined.append(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+      }
+      assertEquals(expected, joined.toString());
+
+      // compressed arrays, split by size
+      options = options(true, false);
+      options.put("shardBytes", 20000L);
+      options.put("gzipOutput", Boolean.TRUE);
+      new GATEJsonExporter().export(corpus, new File(dir, "arrays"), options);
+      manifest = new ObjectMapper().readTree(new File(dir, "arrays-manifest.json"));
+      int documents = 0;
+      for(JsonNode shard : manifest.get("shards")) {
+        assertTrue(shard.get("name").asText().endsWith(".json.gz"));
+        byte[] json = gunzip(Files.readAllBytes(new File(dir, shard.get("name").asText()).toPath()));
+        JsonNode array = new ObjectMapper().readTree(json);
+        assertEquals(shard.get("documents").asInt(), array.size());
+        assertTrue(shard.get("fileBytes").asLong() < shard.get("jsonBytes").asLong());
+        documents += array.size();
+      }
+      assertEquals(DOCUMENTS, documents);
+      assertTrue(manifest.get("shards").size() > 1);
+
+      // a smaller export to the same name leaves no stale shards behind
+      options = options(false, false);
+      options.put("shardDocuments", 20L);
+      new GATEJsonExporter().export(corpus, new File(dir, "tweets.json"), options);
+      manifest = new ObjectMapper().readTree(new File(dir, "tweets-manifest.json"));
+      assertEquals(2, manifest.get("shards").size());
+      assertTrue(new File(dir, "tweets-00001.json").exists());
+      assertFalse(new File(dir, "tweets-00002.json").exists());
+      assertFalse(new File(dir, "tweets-00005.json").exists());
+      assertFalse(new File(dir, "tweets-manifest.json.tmp").exists());
+
+      // a shard that cannot be written fails the export rather than
+      // leaving it waiting for the shard to take more documents
+      options.put("shardDocuments", 1L);
+      try {
+        new GATEJsonExporter().export(corpus, new File(dir, "missing/tweets.json"), options);
+        fail("exported to a missing directory");
+      } catch(IOException e) {
+        // expected
+      }
+    } finally {
+      for(File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  public void testFeatureFiltering() throws Exception {
+    Document doc = Factory.newDocument("hello world");
+    try {
+      doc.getFeatures().clear();
+      doc.getFeatures().put("keep", 1L);
+      doc.getFeatures().put("blank", "");
+      doc.getFeatures().put("drop", "x");
+      FeatureMap features = Utils.featureMap("string", "hello", "kind", "word",
+          "empty", "", "nothing", null, "list", new ArrayList<Object>());
+      Utils.addAnn(doc.getAnnotations(), 0, 5, "Token", features);
+      Utils.addAnn(doc.getAnnotations(), 6, 11, "Other",
+          Utils.featureMap("string", "world", "kind", "word", "length", 5L));
+
+      FeatureMap options = Factory.newFeatureMap();
+      options.put("annotationTypes", new LinkedHashSet<String>(Arrays.asList("Token", "Other")));
+      options.put("excludeFeatures", new HashSet<String>(Arrays.asList("drop", "*/kind")));
+      options.put("dropEmptyValues", Boolean.TRUE);
+      assertEquals("{\"text\":\"hello world\",\"entities\":{"
+          + "\"Token\":[{\"indices\":[0,5],\"string\":\"hello\"}],"
+          + "\"Other\":[{\"indices\":[6,11],\"string\":\"world\",\"length\":5}]},"
+          + "\"keep\":1}", export(doc, options));
+
+      options.put("dropEmptyValues", Boolean.FALSE);
+      options.put("includeFeatures", new HashSet<String>(Arrays.asList(
+          "blank", "drop", "Token/empty", "Token/kind", "Other/length")));
+      assertEquals("{\"text\":\"hello world\",\"entities\":{"
+          + "\"Token\":[{\"indices\":[0,5],\"empty\":\"\"}],"
+          + "\"Other\":[{\"indices\":[6,11],\"length\":5}]},"
+          + "\"blank\":\"\"}", export(doc, options));
+    } finally {
+      Factory.deleteResource(doc);
+    }
+  }
+
+  public void testColumnarAnnotations() throws Exception {
+    Document doc = Factory.newDocument("hello \ud83d\ude00 world");
+    try {
+      doc.getFeatures().clear();
+      Utils.addAnn(doc.getAnnotations(), 0, 5, "Token",
+          Utils.featureMap("string", "hello", "kind", "word"));
+      Utils.addAnn(doc.getAnnotations(), 6, 8, "Token",
+          Utils.featureMap("string", "\ud83d\ude00"));
+      Utils.addAnn(doc.getAnnotations(), 9, 14, "Token",
+          Utils.featureMap("string", "world", "kind", "word", "length", 5L));
+
+      FeatureMap options = Factory.newFeatureMap();
+      options.put("annotationTypes", new LinkedHashSet<String>(Arrays.asList("Token")));
+      String rows = export(doc, options);
+      options.put("columnarAnnotations", Boolean.TRUE);
+      String columns = export(doc, options);
+      assertEquals("{\"text\":\"hello \\uD83D\\uDE00 world\",\"entities\":{"
+          + "\"Token\":{\"starts\":[0,6,8],\"ends\":[5,7,13],\"features\":{"
+          + "\"string\":[\"hello\",\"\\uD83D\\uDE00\",\"world\"],"
+          + "\"kind\":[\"word\",null,\"word\"],"
+          + "\"length\":[null,null,5]}}}}", columns);
+
+      // both layouts load as the same annotations
+      assertEquals(signature(load(rows)), signature(load(columns)));
+
+      // except that a null valued feature only survives in rows
+      Utils.addAnn(doc.getAnnotations(), 14, 14, "Token",
+          Utils.featureMap("string", "", "kind", null));
+      options.remove("columnarAnnotations");
+      assertTrue(signature(load(export(doc, options))).contains("kind=null"));
+      options.put("columnarAnnotations", Boolean.TRUE);
+      columns = export(doc, options);
+      assertTrue(columns.endsWith("\"kind\":[\"word\",null,\"word\",null],"
+          + "\"length\":[null,null,5,null]}}}}"));
+      assertFalse(signature(load(columns)).contains("kind=null"));
+    } finally {
+      Factory.deleteResource(doc);
+    }
+
+    doc = randomDocument(48);
+    try {
+      FeatureMap options = Factory.newFeatureMap();
+      options.put("annotationTypes", new LinkedHashSet<String>(Arrays.asList("Token", "Other")));
+      String rows = export(doc, options);
+      options.put("columnarAnnotations", Boolean.TRUE);
+      options.put("streamAnnotations", Boolean.TRUE);
+      String columns = export(doc, options);
+      assertTrue(columns.length() * 2 < rows.length());
+      assertEquals(signature(load(rows)), signature(load(columns)));
+    } finally {
+      Factory.deleteResource(doc);
+    }
+  }
+
+  private static Document load(String json) throws Exception {
+    FeatureMap params = Factory.newFeatureMap();
+    params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME, json);
+    params.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, "text/json");
+    return (Document)Factory.createResource("gate.corpora.DocumentImpl", params);
+  }
+
+  /**
+   * The text and sorted Original markups annotations of a document, which
+   * is deleted.
+   */
+  private static String signature(Document doc) {
+    List<String> annotations = new ArrayList<String>();
+    for(Annotation a : doc.getAnnotations(GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME)) {
+      annotations.add(a.getType() + " " + Utils.start(a) + " " + Utils.end(a)
+          + " " + new TreeMap<Object, Object>(a.getFeatures()));
+    }
+    Collections.sort(annotations);
+    String text = doc.getContent().toString();
+    Factory.deleteResource(doc);
+    return text + annotations;
+  }
+
+  private static String export(Document doc, FeatureMap options) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new GATEJsonExporter().export(doc, out, options);
+    return out.toString("UTF-8");
+  }
+}
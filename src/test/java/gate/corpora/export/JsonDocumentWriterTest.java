@@ -0,0 +1,148 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import gate.corpora.json.CompactFeatureMap;
+import gate.corpora.json.JSONUtils;
+import gate.corpora.json.OffsetConverter;
+import gate.corpora.json.OffsetUnit;
+import junit.framework.TestCase;
+
+public class JsonDocumentWriterTest extends TestCase {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final JsonDocumentWriter writer = new JsonDocumentWriter(OffsetUnit.CODEPOINTS);
+
+  private String write(Object value) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try(JsonGenerator json = MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+      writer.writeValue(json, value);
+    }
+    return out.toString("UTF-8");
+  }
+
+  private void assertSameAsDatabinding(Object value) throws Exception {
+    assertEquals(new String(MAPPER.writeValueAsBytes(value), "UTF-8"), write(value));
+  }
+
+  public void testValuesMatchDatabinding() throws Exception {
+    CompactFeatureMap nested = new CompactFeatureMap();
+    nested.put("name", "Twitter Dev");
+    nested.put("id", 2244994945L);
+    nested.put("verified", Boolean.TRUE);
+    nested.put("ratio", 0.25);
+    nested.put("nothing", null);
+    nested.put("tags", Arrays.asList("a", 1, 2.5f, null, Collections.emptyList()));
+
+    Map<Object, Object> numberKeys = new LinkedHashMap<Object, Object>();
+    numberKeys.put(1, "one");
+    numberKeys.put("two", 2);
+
+    List<Object> values = Arrays.<Object>asList(null, "", "quote \" and é\n",
+        0L, Long.MIN_VALUE, 42, Double.NaN, -0.0, 1e300, 3.5f, (short)7,
+        (byte)8, 'c', Boolean.FALSE, BigInteger.TEN.pow(30),
+        new BigDecimal("1.50"), new ArrayList<Object>(), new HashMap<Object, Object>(),
+        new LinkedHashSet<Object>(Arrays.asList("x", "y")), new int[] {1, 2},
+        new String[] {"s"}, nested, Collections.singletonList(nested), numberKeys);
+    for(Object value : values) {
+      assertSameAsDatabinding(value);
+    }
+  }
+
+  public void testNullKeyStillRejected() throws Exception {
+    Map<Object, Object> map = new HashMap<Object, Object>();
+    map.put(null, "x");
+    try {
+      write(map);
+      fail("null key written");
+    } catch(JsonMappingException e) {
+      // as databinding would
+    }
+  }
+
+  public void testTweetMatchesDatabinding() throws Exception {
+    try(InputStream in = getClass().getResourceAsStream("/gate/corpora/json/tweet.json")) {
+      assertSameAsDatabinding(JSONUtils.process(MAPPER.readTree(in)));
+    }
+  }
+
+  public void testOffsetConversion() {
+    String[] pieces = {"a", "b ", "&", "<>", "\u00e9", "\u4e2d\u6587",
+        "\ud83d\udc4d", "\ud83d\udc4d\ud83c\udffb\ud83d\ude00"};
+    Random random = new Random(39);
+    for(int round = 0; round < 200; round++) {
+      StringBuilder text = new StringBuilder();
+      for(int i = random.nextInt(40); i > 0; i--) {
+        text.append(pieces[random.nextInt(pieces.length)]);
+      }
+      String str = text.toString();
+      for(OffsetUnit units : OffsetUnit.values()) {
+        // expected offset of each code point boundary, counted directly
+        List<long[]> expected = new ArrayList<long[]>();
+        long out = 0;
+        for(int i = 0; i <= str.length(); ) {
+          expected.add(new long[] {i, out});
+          if(i == str.length()) break;
+          int cp = str.codePointAt(i);
+          out += cp == '&' ? 5 : cp == '<' || cp == '>' ? 4 : units.length(cp);
+          i += Character.charCount(cp);
+        }
+        OffsetConverter.Builder offsets = new OffsetConverter.Builder();
+        JsonDocumentWriter.escape(str, units, offsets);
+        OffsetConverter converter = offsets.build();
+        for(long[] pair : expected) {
+          assertEquals(str + " " + units, pair[1], converter.convert(pair[0]));
+        }
+        Collections.shuffle(expected, random);
+        for(long[] pair : expected) {
+          assertEquals(str + " " + units, pair[1], converter.convert(pair[0]));
+        }
+      }
+    }
+  }
+
+  public void testRepeatedEventsAreMerged() {
+    String emoji = "\ud83d\ude00";
+    StringBuilder text = new StringBuilder("x");
+    for(int i = 0; i < 1000; i++) text.append(emoji);
+    text.append("y&&&z");
+    OffsetConverter.Builder offsets = new OffsetConverter.Builder();
+    JsonDocumentWriter.escape(text.toString(), OffsetUnit.CODEPOINTS, offsets);
+    OffsetConverter converter = offsets.build();
+    assertEquals(2, converter.size());
+    // inside a surrogate pair, as RepositioningInfo would have it
+    assertEquals(2, converter.convert(2));
+    assertEquals(1001, converter.convert(2000));
+    assertEquals(1002, converter.convert(2002));
+    assertEquals(1007, converter.convert(2003));
+    assertEquals(1012, converter.convert(2004));
+    assertEquals(1017, converter.convert(2005));
+  }
+}
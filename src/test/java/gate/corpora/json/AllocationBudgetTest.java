@@ -0,0 +1,208 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import gate.Document;
+import gate.DocumentFormat;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.GateConstants;
+import gate.corpora.DocumentImpl;
+import gate.corpora.MimeType;
+import gate.corpora.export.GATEJsonExporter;
+import gate.test.GATEPluginTestCase;
+
+/**
+ * Checks the bytes allocated per document by the hot paths against fixed
+ * budgets, using the per-thread allocation counter of HotSpot's
+ * ThreadMXBean, so that a change that makes them allocate much more fails
+ * the build rather than going unnoticed.
+ *
+ * Each budget is roughly twice what was measured on the fixture when it
+ * was set, which leaves room for JVM and library differences but not for
+ * a real regression.  When a change legitimately moves a figure, run with
+ * -Dallocation.report=true to print every measurement and update the
+ * budget here.  On a JVM without allocation accounting the checks are
+ * skipped.
+ */
+public class AllocationBudgetTest extends GATEPluginTestCase {
+
+  private static final int WARMUP = 200;
+
+  private static final int MEASURED = 100;
+
+  /**
+   * The fixture: the sample tweet and ten generated ones, as JSON lines.
+   */
+  private static String fixture() throws Exception {
+    String tweet;
+    try(InputStream in = AllocationBudgetTest.class.getResourceAsStream("tweet.json")) {
+      tweet = JSONUtils.MAPPER.readTree(in).toString();
+    }
+    StringBuilder json = new StringBuilder(tweet);
+    TweetGenerator generator = new TweetGenerator(45).quoteDepth(1);
+    for(int i = 0; i < 10; i++) {
+      json.append('\n').append(generator.tweet(i).toString());
+    }
+    return json.toString();
+  }
+
+  private static List<JsonNode> nodes() throws Exception {
+    List<JsonNode> nodes = new ArrayList<JsonNode>();
+    for(String line : fixture().split("\n")) {
+      nodes.add(JSONUtils.MAPPER.readTree(line));
+    }
+    return nodes;
+  }
+
+  public void testJSONDocumentConstruction() throws Exception {
+    final List<JsonNode> nodes = nodes();
+    // the constructor removes the text from the node, so each round needs
+    // fresh copies, made before measuring
+    final List<List<JsonNode>> copies = new ArrayList<List<JsonNode>>();
+    for(int i = 0; i < WARMUP + MEASURED; i++) {
+      List<JsonNode> round = new ArrayList<JsonNode>();
+      for(JsonNode node : nodes) round.add(node.deepCopy());
+      copies.add(round);
+    }
+    checkBudget("JSONDocument construction", 7500, nodes.size(), new Round() {
+      int next = 0;
+
+      @Override
+      public void run() {
+        for(JsonNode node : copies.get(next++)) {
+          new JSONDocument(node, "text", true);
+        }
+      }
+    });
+  }
+
+  public void testProcess() throws Exception {
+    final List<JsonNode> nodes = nodes();
+    checkBudget("JSONUtils.process", 7000, nodes.size(), new Round() {
+      @Override
+      public void run() {
+        for(JsonNode node : nodes) {
+          JSONUtils.process(node);
+        }
+      }
+    });
+  }
+
+  public void testUnpackMarkup() throws Exception {
+    final DocumentFormat format =
+        DocumentFormat.getDocumentFormat(new MimeType("text", "json"));
+    String json = fixture();
+    final List<Document> docs = new ArrayList<Document>();
+    for(int i = 0; i < WARMUP + MEASURED; i++) {
+      FeatureMap params = Factory.newFeatureMap();
+      params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME, json);
+      params.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, "text/json");
+      params.put(Document.DOCUMENT_MARKUP_AWARE_PARAMETER_NAME, Boolean.FALSE);
+      docs.add((Document)Factory.createResource(DocumentImpl.class.getName(),
+          params, null, null));
+    }
+    try {
+      checkBudget("unpackMarkup", 43000, json.split("\n").length, new Round() {
+        int next = 0;
+
+        @Override
+        public void run() throws Exception {
+          format.unpackMarkup(docs.get(next++));
+        }
+      });
+    } finally {
+      for(Document doc : docs) {
+        Factory.deleteResource(doc);
+      }
+    }
+  }
+
+  public void testDocumentExport() throws Exception {
+    String json = fixture();
+    FeatureMap params = Factory.newFeatureMap();
+    params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME, json);
+    params.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, "text/json");
+    final Document doc = (Document)Factory.createResource(
+        DocumentImpl.class.getName(), params, null, null);
+    final FeatureMap options = Factory.newFeatureMap();
+    options.put("entitiesAnnotationSetName", GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME);
+    options.put("annotationTypes", new LinkedHashSet<String>(
+        Arrays.asList("hashtags", "user_mentions", "urls")));
+    options.put("documentAnnotationASName", GateConstants.ORIGINAL_MARKUPS_ANNOT_SET_NAME);
+    options.put("documentAnnotationType", JSONUtils.ANNOTATION_TYPE);
+    final GATEJsonExporter exporter = new GATEJsonExporter();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+    try {
+      checkBudget("single-document export", 12000, json.split("\n").length, new Round() {
+        @Override
+        public void run() throws Exception {
+          out.reset();
+          try(JsonGenerator generator = JSONUtils.MAPPER.getFactory()
+              .createGenerator(out)) {
+            exporter.export(doc, generator, options);
+          }
+        }
+      });
+      assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8)
+          .contains("\"entities\""));
+    } finally {
+      Factory.deleteResource(doc);
+    }
+  }
+
+  private interface Round {
+    void run() throws Exception;
+  }
+
+  /**
+   * Run the round enough times for the JIT to settle, then check the bytes
+   * allocated per record over a further set of rounds.
+   */
+  private static void checkBudget(String name, long budgetPerRecord,
+      int records, Round round) throws Exception {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if(!(threads instanceof com.sun.management.ThreadMXBean)) return;
+    com.sun.management.ThreadMXBean allocation =
+        (com.sun.management.ThreadMXBean)threads;
+    if(!allocation.isThreadAllocatedMemorySupported()) return;
+    allocation.setThreadAllocatedMemoryEnabled(true);
+
+    for(int i = 0; i < WARMUP; i++) {
+      round.run();
+    }
+    long thread = Thread.currentThread().getId();
+    long before = allocation.getThreadAllocatedBytes(thread);
+    for(int i = 0; i < MEASURED; i++) {
+      round.run();
+    }
+    long perRecord = (allocation.getThreadAllocatedBytes(thread) - before)
+        / ((long)MEASURED * records);
+    if(Boolean.getBoolean("allocation.report")) {
+      System.out.println(name + ": " + perRecord + " bytes per record (budget "
+          + budgetPerRecord + ")");
+    }
+    assertTrue(name + " allocated " + perRecord + " bytes per record, over its budget of "
+        + budgetPerRecord + " (" + (perRecord * 100 / budgetPerRecord) + "% of budget)",
+        perRecord <= budgetPerRecord);
+  }
+}
@@ -0,0 +1,315 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import gate.Factory;
+import gate.FeatureMap;
+import junit.framework.TestCase;
+
+public class CompactFeatureMapTest extends TestCase {
+
+  public void testBasicOperations() {
+    CompactFeatureMap map = new CompactFeatureMap();
+    assertTrue(map.isEmpty());
+    assertNull(map.put("a", 1L));
+    assertNull(map.put("b", "two"));
+    assertNull(map.put(null, "null key"));
+    assertEquals(1L, map.put("a", 3L));
+    assertEquals(3, map.size());
+    assertEquals(3L, map.get("a"));
+    assertEquals("null key", map.get(null));
+    assertTrue(map.containsKey(new String("b")));
+    assertTrue(map.containsValue("two"));
+    assertEquals(Arrays.asList("a", "b", null), new ArrayList<Object>(map.keySet()));
+
+    assertEquals("two", map.remove("b"));
+    assertNull(map.remove("missing"));
+    assertEquals(Arrays.asList("a", null), new ArrayList<Object>(map.keySet()));
+
+    Iterator<Map.Entry<Object, Object>> it = map.entrySet().iterator();
+    it.next().setValue(4L);
+    it.remove();
+    assertEquals(1, map.size());
+    assertFalse(map.containsKey("a"));
+
+    map.clear();
+    assertTrue(map.isEmpty());
+  }
+
+  public void testPromotionToHashedStorage() {
+    CompactFeatureMap map = new CompactFeatureMap();
+    FeatureMap reference = Factory.newFeatureMap();
+    for(int i = 0; i < 200; i++) {
+      map.put("key" + i, i);
+      reference.put("key" + i, i);
+    }
+    for(int i = 0; i < 200; i += 3) {
+      map.remove("key" + i);
+      reference.remove("key" + i);
+    }
+    assertEquals(reference.size(), map.size());
+    for(int i = 0; i < 200; i++) {
+      assertEquals(reference.get("key" + i), map.get("key" + i));
+    }
+    assertEquals(reference, map);
+    assertEquals(map, reference);
+  }
+
+  public void testSubsumes() {
+    FeatureMap map = new CompactFeatureMap();
+    map.put("kind", "word");
+    map.put("length", 4L);
+    FeatureMap constraints = Factory.newFeatureMap();
+    constraints.put("kind", "word");
+    assertTrue(map.subsumes(constraints));
+    assertTrue(map.subsumes(constraints, Collections.singleton("kind")));
+    constraints.put("length", 5L);
+    assertFalse(map.subsumes(constraints));
+    assertTrue(map.subsumes(constraints, Collections.singleton("kind")));
+    assertTrue(map.subsumes(null));
+  }
+
+  public void testListeners() {
+    FeatureMap map = new CompactFeatureMap();
+    final AtomicInteger updates = new AtomicInteger();
+    map.addFeatureMapListener(() -> updates.incrementAndGet());
+    map.put("a", "b");
+    map.remove("a");
+    map.put("c", "d");
+    map.entrySet().iterator().next().setValue("e");
+    map.clear();
+    assertEquals(5, updates.get());
+  }
+
+  public void testSerialization() throws Exception {
+    CompactFeatureMap map = new CompactFeatureMap();
+    for(int i = 0; i < 20; i++) {
+      map.put("key" + i, "value" + i);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(map);
+    }
+    try(ObjectInputStream in = new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray()))) {
+      CompactFeatureMap copy = (CompactFeatureMap)in.readObject();
+      assertEquals(map, copy);
+      assertEquals("value17", copy.get("key17"));
+    }
+  }
+
+  /**
+   * Compare the structural footprint of the features built from a real
+   * tweet with the features the same tweet produced using the default
+   * GATE FeatureMap and ArrayList.  Where the JDK will not let the test
+   * walk the fields of its own collections, the bytes allocated building
+   * each structure are compared instead.  Run with -Dfootprint.report=true
+   * to print the two sizes.
+   */
+  public void testFootprintOfTweet() throws Exception {
+    JsonNode tweet;
+    try(InputStream in = getClass().getResourceAsStream("tweet.json")) {
+      tweet = new ObjectMapper().readTree(in);
+    }
+    Object compact = JSONUtils.process(tweet);
+    assertTrue(compact instanceof CompactFeatureMap);
+    Object standard = toDefaultStructures(compact);
+    assertEquals(standard, compact);
+
+    String measure = "footprint";
+    long compactBytes = footprint(compact);
+    long standardBytes = footprint(standard);
+    if(compactBytes < 0 || standardBytes < 0) {
+      // the walk needs access to the fields of the JDK's own collections,
+      // which newer JDKs refuse unless java.util is opened to us
+      measure = "allocation";
+      compactBytes = allocated(() -> toCompactStructures(compact));
+      standardBytes = allocated(() -> toDefaultStructures(compact));
+    }
+    if(compactBytes < 0 || standardBytes < 0) {
+      System.out.println("Skipping tweet footprint comparison: this JVM allows "
+          + "neither walking java.util nor counting allocated bytes");
+      return;
+    }
+    if(Boolean.getBoolean("footprint.report")) {
+      System.out.println("Tweet feature structures (" + measure + "): compact="
+          + compactBytes + " bytes, default=" + standardBytes + " bytes");
+    }
+    assertTrue("compact " + measure + " " + compactBytes
+        + " not smaller than default " + standardBytes,
+        compactBytes < standardBytes);
+  }
+
+  /**
+   * Rebuild a tree of maps and lists the way JSONUtils.process used to,
+   * with Factory.newFeatureMap() and default-capacity ArrayLists.
+   */
+  private static Object toDefaultStructures(Object value) {
+    if(value instanceof Map) {
+      FeatureMap map = Factory.newFeatureMap();
+      for(Map.Entry<?, ?> e : ((Map<?, ?>)value).entrySet()) {
+        map.put(e.getKey(), toDefaultStructures(e.getValue()));
+      }
+      return map;
+    }
+    if(value instanceof List) {
+      List<Object> list = new ArrayList<Object>();
+      for(Object item : (List<?>)value) {
+        list.add(toDefaultStructures(item));
+      }
+      return list;
+    }
+    return value;
+  }
+
+  /**
+   * Rebuild a tree of maps and lists the way JSONUtils.process does now,
+   * with CompactFeatureMaps and exactly sized ArrayLists.
+   */
+  private static Object toCompactStructures(Object value) {
+    if(value instanceof Map) {
+      Map<?, ?> source = (Map<?, ?>)value;
+      FeatureMap map = new CompactFeatureMap(source.size());
+      for(Map.Entry<?, ?> e : source.entrySet()) {
+        map.put(e.getKey(), toCompactStructures(e.getValue()));
+      }
+      return map;
+    }
+    if(value instanceof List) {
+      List<?> source = (List<?>)value;
+      List<Object> list = new ArrayList<Object>(source.size());
+      for(Object item : source) {
+        list.add(toCompactStructures(item));
+      }
+      return list;
+    }
+    return value;
+  }
+
+  /**
+   * The bytes the current thread allocates building a structure, once the
+   * JIT has settled, or -1 if the JVM cannot count them.  This includes any
+   * garbage made along the way, so it is a rougher measure than the
+   * footprint.
+   */
+  private static long allocated(Supplier<Object> build) {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if(!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+    com.sun.management.ThreadMXBean allocation =
+        (com.sun.management.ThreadMXBean)threads;
+    if(!allocation.isThreadAllocatedMemorySupported()) return -1;
+    allocation.setThreadAllocatedMemoryEnabled(true);
+    for(int i = 0; i < 2000; i++) {
+      build.get();
+    }
+    long thread = Thread.currentThread().getId();
+    long before = allocation.getThreadAllocatedBytes(thread);
+    for(int i = 0; i < 100; i++) {
+      build.get();
+    }
+    return (allocation.getThreadAllocatedBytes(thread) - before) / 100;
+  }
+
+  /**
+   * Estimate the bytes occupied by the maps, lists and arrays making up a
+   * feature structure, assuming a 64-bit JVM with compressed references.
+   * Strings, numbers and booleans are the same payload whichever map is
+   * used, so they are not counted.
+   *
+   * @return the estimate, or -1 if the fields of some class in the
+   *         structure cannot be read
+   */
+  private static long footprint(Object root) throws IllegalAccessException {
+    IdentityHashMap<Object, Boolean> seen = new IdentityHashMap<>();
+    Deque<Object> pending = new ArrayDeque<>();
+    pending.push(root);
+    long total = 0;
+    while(!pending.isEmpty()) {
+      Object obj = pending.pop();
+      if(isPayload(obj) || seen.put(obj, Boolean.TRUE) != null) {
+        continue;
+      }
+      Class<?> cls = obj.getClass();
+      if(cls.isArray()) {
+        int length = Array.getLength(obj);
+        Class<?> component = cls.getComponentType();
+        total += align(16 + (long)length * sizeOf(component));
+        if(!component.isPrimitive()) {
+          for(int i = 0; i < length; i++) {
+            Object element = Array.get(obj, i);
+            if(element != null) pending.push(element);
+          }
+        }
+        continue;
+      }
+      long size = 12;
+      for(Class<?> c = cls; c != null; c = c.getSuperclass()) {
+        for(Field f : c.getDeclaredFields()) {
+          if(Modifier.isStatic(f.getModifiers())) continue;
+          size += sizeOf(f.getType());
+          if(!f.getType().isPrimitive()) {
+            try {
+              f.setAccessible(true);
+            } catch(RuntimeException e) {
+              // InaccessibleObjectException on JDK 9+ with strong
+              // encapsulation, SecurityException under a security manager
+              return -1;
+            }
+            Object value = f.get(obj);
+            if(value != null) pending.push(value);
+          }
+        }
+      }
+      total += align(size);
+    }
+    return total;
+  }
+
+  private static boolean isPayload(Object obj) {
+    return obj instanceof String || obj instanceof Number
+        || obj instanceof Boolean || obj instanceof Class;
+  }
+
+  private static int sizeOf(Class<?> type) {
+    if(type == long.class || type == double.class) return 8;
+    if(type == int.class || type == float.class) return 4;
+    if(type == short.class || type == char.class) return 2;
+    if(type == byte.class || type == boolean.class) return 1;
+    return 4;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+}
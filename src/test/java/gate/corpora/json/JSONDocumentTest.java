@@ -0,0 +1,110 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import gate.FeatureMap;
+import junit.framework.TestCase;
+
+public class JSONDocumentTest extends TestCase {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final String JSON = "{\"text\":\"one &amp; #two @three\","
+      + "\"entities\":{\"hashtags\":[{\"text\":\"two\",\"indices\":[10,14]}],"
+      + "\"user_mentions\":[{\"screen_name\":\"three\",\"id\":3,"
+      + "\"user\":{\"verified\":true,\"tags\":[\"a\",\"b\"]},\"indices\":[15,21]}]}}";
+
+  public void testEntityFeaturesAndOffsets() throws Exception {
+    for(boolean lazy : new boolean[] {false, true}) {
+      Map<String, PreAnnotation> entities = entities(JSON, lazy);
+      assertEquals(2, entities.size());
+
+      PreAnnotation hashtag = entities.get("hashtags");
+      // the escaped ampersand shrinks by four characters
+      assertEquals(6, hashtag.getStart());
+      assertEquals(10, hashtag.getEnd());
+      assertEquals(1, hashtag.getFeatures().size());
+      assertEquals("two", hashtag.getFeatures().get("text"));
+
+      PreAnnotation mention = entities.get("user_mentions");
+      assertEquals(11, mention.getStart());
+      assertEquals(17, mention.getEnd());
+      FeatureMap features = mention.getFeatures();
+      assertFalse(features.containsKey("indices"));
+      assertEquals("three", features.get("screen_name"));
+      assertEquals(3L, features.get("id"));
+      FeatureMap user = (FeatureMap)features.get("user");
+      assertEquals(Boolean.TRUE, user.get("verified"));
+      assertEquals(Arrays.asList("a", "b"), user.get("tags"));
+    }
+  }
+
+  public void testMalformedIndicesSkipped() throws Exception {
+    Map<String, PreAnnotation> entities = entities("{\"text\":\"abcdef\","
+        + "\"entities\":{\"missing\":[{\"text\":\"a\"}],"
+        + "\"notArray\":[{\"indices\":3}],"
+        + "\"short\":[{\"indices\":[1]}],"
+        + "\"notNumbers\":[{\"indices\":[\"1\",\"2\"]}],"
+        + "\"notObject\":[[1,2]],"
+        + "\"good\":[{\"indices\":[1,3]}]}}", false);
+    assertEquals(1, entities.size());
+    assertEquals(1, entities.get("good").getStart());
+    assertEquals(3, entities.get("good").getEnd());
+  }
+
+  public void testLazyFeatures() throws Exception {
+    PreAnnotation mention = entities(JSON, true).get("user_mentions");
+    LazyFeatureMap features = (LazyFeatureMap)mention.getFeatures();
+    assertFalse(features.isMaterialised());
+    assertEquals("three", features.get("screen_name"));
+    assertTrue(features.isMaterialised());
+  }
+
+  public void testLazyFeaturesSerializeCompact() throws Exception {
+    PreAnnotation mention = entities(JSON, true).get("user_mentions");
+    LazyFeatureMap features = (LazyFeatureMap)mention.getFeatures();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(features);
+    }
+    try(ObjectInputStream in = new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray()))) {
+      Object read = in.readObject();
+      assertTrue(read.getClass().getName(), read instanceof CompactFeatureMap);
+      assertEquals(features, read);
+    }
+  }
+
+  /**
+   * The entity annotations of one record, by type.
+   */
+  private static Map<String, PreAnnotation> entities(String json, boolean lazy)
+    throws Exception {
+    JSONDocument doc = new JSONDocument(MAPPER.readTree(json), "text", true,
+        null, lazy);
+    Map<String, PreAnnotation> entities = new TreeMap<String, PreAnnotation>();
+    for(PreAnnotation annotation : doc.getAnnotations()) {
+      if(!annotation.getType().equals(JSONUtils.ANNOTATION_TYPE)) {
+        entities.put(annotation.getType(), annotation);
+      }
+    }
+    return entities;
+  }
+}
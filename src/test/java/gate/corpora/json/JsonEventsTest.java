@@ -0,0 +1,65 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.corpora.DocumentImpl;
+import gate.test.GATEPluginTestCase;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class JsonEventsTest extends GATEPluginTestCase {
+
+  public void testParseEventsRecorded() throws Exception {
+    if(!JsonEvents.isAvailable()) return;
+
+    File dump = File.createTempFile("json-events", ".jfr");
+    List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+    try(Recording recording = new Recording()) {
+      recording.enable("gate.corpora.json.DocumentParse");
+      recording.enable("gate.corpora.json.RecordParse");
+      recording.start();
+      FeatureMap params = Factory.newFeatureMap();
+      params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME,
+          "{\"text\":\"one #two\",\"entities\":{\"hashtags\":"
+          + "[{\"text\":\"two\",\"indices\":[4,8]}]}}\n{\"text\":\"three\"}");
+      params.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, "text/json");
+      Document doc = (Document)Factory.createResource(
+          DocumentImpl.class.getName(), params, null, "events");
+      Factory.deleteResource(doc);
+      recording.stop();
+      recording.dump(dump.toPath());
+      events.addAll(RecordingFile.readAllEvents(dump.toPath()));
+    } finally {
+      dump.delete();
+    }
+
+    int records = 0;
+    RecordedEvent parse = null;
+    for(RecordedEvent event : events) {
+      String name = event.getEventType().getName();
+      if(name.equals("gate.corpora.json.RecordParse")) records++;
+      if(name.equals("gate.corpora.json.DocumentParse")) parse = event;
+    }
+    assertEquals(2, records);
+    assertNotNull(parse);
+    assertEquals("events", parse.getString("document"));
+    assertEquals(2, parse.getInt("records"));
+    // one Tweet annotation per record and the hashtag
+    assertEquals(3, parse.getLong("annotations"));
+  }
+}
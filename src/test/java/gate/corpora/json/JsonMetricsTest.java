@@ -0,0 +1,99 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.corpora.DocumentImpl;
+import gate.test.GATEPluginTestCase;
+
+public class JsonMetricsTest extends GATEPluginTestCase {
+
+  public void testHistogramPercentiles() {
+    Log2Histogram histogram = new Log2Histogram();
+    for(int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    Log2Histogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(100, snapshot.getCount());
+    assertEquals(50, snapshot.getMean());
+    assertEquals(100, snapshot.getMax());
+    // 50 lies in [32, 64) and 90 and 99 in [64, 128), capped at the max
+    assertEquals(63, snapshot.getP50());
+    assertEquals(100, snapshot.getP90());
+    assertEquals(100, snapshot.getP99());
+
+    histogram.reset();
+    assertEquals(0, histogram.snapshot().getCount());
+    assertEquals(0, histogram.snapshot().getP99());
+  }
+
+  public void testMetricsPublished() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(JsonMetrics.OBJECT_NAME);
+    assertTrue(server.isRegistered(name));
+
+    long parsed = (Long)server.getAttribute(name, "DocumentsParsed");
+    long records = (Long)server.getAttribute(name, "RecordsParsed");
+    long errors = (Long)server.getAttribute(name, "ParseErrors");
+
+    Factory.deleteResource(jsonDocument(
+        "{\"text\":\"one #two\",\"entities\":{\"hashtags\":"
+        + "[{\"text\":\"two\",\"indices\":[4,8]}]}}\n{\"text\":\"three\"}"));
+    Factory.deleteResource(jsonDocument("{\"text\":"));
+
+    assertEquals(parsed + 1, server.getAttribute(name, "DocumentsParsed"));
+    assertEquals(records + 2, server.getAttribute(name, "RecordsParsed"));
+    assertEquals(errors + 1, server.getAttribute(name, "ParseErrors"));
+    CompositeData parseTime = (CompositeData)server.getAttribute(name, "ParseTime");
+    assertTrue((Long)parseTime.get("count") > 0);
+  }
+
+  public void testCharactersParsed() throws Exception {
+    JsonMetrics metrics = JsonMetrics.get();
+    long characters = metrics.getCharactersParsed();
+    long bytes = metrics.getBytesParsed();
+    // the surrounding whitespace is trimmed before parsing
+    Factory.deleteResource(jsonDocument("  {\"text\":\"\u00e9t\u00e9\"}\n"));
+    assertEquals(characters + 14, metrics.getCharactersParsed());
+    // text arrives already decoded, so no bytes are counted for it
+    assertEquals(bytes, metrics.getBytesParsed());
+  }
+
+  public void testMetricsSurviveAnotherFormat() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(JsonMetrics.OBJECT_NAME);
+    Factory.deleteResource(jsonDocument("{\"text\":\"one\"}"));
+    long parsed = (Long)server.getAttribute(name, "DocumentsParsed");
+    assertTrue(parsed > 0);
+
+    // another format registering and then being unloaded leaves the
+    // metrics of those still loaded alone
+    JsonMetrics.register();
+    JsonMetrics.unregister();
+    assertTrue(server.isRegistered(name));
+    assertEquals(parsed, server.getAttribute(name, "DocumentsParsed"));
+  }
+
+  private static Document jsonDocument(String json) throws Exception {
+    FeatureMap params = Factory.newFeatureMap();
+    params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME, json);
+    params.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, "text/json");
+    return (Document)Factory.createResource(DocumentImpl.class.getName(),
+        params, null, null);
+  }
+}
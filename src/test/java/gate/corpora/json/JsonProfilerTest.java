@@ -0,0 +1,101 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class JsonProfilerTest extends TestCase {
+
+  private static final int TWEETS = 2000;
+
+  private static byte[] tweets(boolean asArray, boolean gzip) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new TweetGenerator(46).write(out, TWEETS, asArray, gzip);
+    return out.toByteArray();
+  }
+
+  public void testPathsAndTypes() throws Exception {
+    JsonProfiler profiler = new JsonProfiler();
+    profiler.profile(new ByteArrayInputStream(tweets(false, false)));
+    assertEquals(TWEETS, profiler.getRecords());
+    Map<String, JsonProfiler.PathProfile> paths = profiler.getPaths();
+
+    JsonProfiler.PathProfile id = paths.get("id");
+    assertEquals(TWEETS, id.getCount());
+    assertEquals(Long.valueOf(TWEETS), id.getTypes().get("number"));
+    // every id is distinct; the estimate should be within a few percent
+    assertTrue("estimated " + id.getDistinct(),
+        Math.abs(id.getDistinct() - TWEETS) < TWEETS * 0.05);
+
+    JsonProfiler.PathProfile lang = paths.get("lang");
+    assertEquals(2, lang.getDistinct());
+    assertEquals(Long.valueOf(TWEETS), paths.get("geo").getTypes().get("null"));
+    assertEquals(-1, paths.get("user").getDistinct());
+    assertEquals(Long.valueOf(TWEETS), paths.get("entities.hashtags").getTypes().get("array"));
+    JsonProfiler.PathProfile indices = paths.get("entities.hashtags[].indices[]");
+    assertEquals(2 * paths.get("entities.hashtags[]").getCount(), indices.getCount());
+
+    // "truncated":false is 5 bytes in every record
+    assertEquals(5.0, paths.get("truncated").getAverageBytes(), 0.0);
+  }
+
+  public void testArrayAndGzipInputsMatch() throws Exception {
+    JsonProfiler lines = new JsonProfiler();
+    lines.profile(new ByteArrayInputStream(tweets(false, false)));
+    JsonProfiler array = new JsonProfiler();
+    array.profile(new ByteArrayInputStream(tweets(true, true)));
+    assertEquals(lines.getRecords(), array.getRecords());
+    assertEquals(lines.getPaths().keySet(), array.getPaths().keySet());
+    for(String path : lines.getPaths().keySet()) {
+      assertEquals(path, lines.getPaths().get(path).getCount(),
+          array.getPaths().get(path).getCount());
+    }
+  }
+
+  public void testInputClosedOnBadGzip() throws Exception {
+    final boolean[] closed = {false};
+    // the gzip magic bytes followed by a truncated header
+    ByteArrayInputStream input = new ByteArrayInputStream(new byte[] {0x1f, (byte)0x8b, 8}) {
+      @Override
+      public void close() {
+        closed[0] = true;
+      }
+    };
+    try {
+      new JsonProfiler().profile(input);
+      fail("truncated gzip header accepted");
+    } catch(IOException e) {
+      // expected
+    }
+    assertTrue(closed[0]);
+  }
+
+  public void testKeepListSavings() throws Exception {
+    JsonProfiler profiler = new JsonProfiler();
+    profiler.profile(new ByteArrayInputStream(tweets(false, false)));
+    long all = profiler.featureBytes("text", null);
+    long kept = profiler.featureBytes("text", Arrays.asList("id_str", "user:screen_name"));
+    assertTrue(all > kept);
+    assertTrue(kept > 0);
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    profiler.report(new PrintStream(report, true, "UTF-8"), "text",
+        Arrays.asList("id_str", "user:screen_name"));
+    String text = new String(report.toByteArray(), StandardCharsets.UTF_8);
+    assertTrue(text, text.contains("saving " + (all - kept)));
+  }
+}
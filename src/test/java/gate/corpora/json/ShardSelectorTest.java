@@ -0,0 +1,56 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import junit.framework.TestCase;
+
+public class ShardSelectorTest extends TestCase {
+
+  /**
+   * The shard of 7 owning each of a few IDs and positions.  These must
+   * never change: processes running different versions of the plugin, or
+   * repeating an earlier run, rely on splitting the input the same way.
+   */
+  public void testAssignmentIsStable() {
+    assertOwner(4, "1050118621198921728");
+    assertOwner(5, "1050118621198921729");
+    assertOwner(2, "12345");
+    assertOwner(0, "tweet-a");
+    assertOwner(2, "\u6771\u4EAC");
+    assertOwner(1, "");
+
+    assertOwner(0, 0);
+    assertOwner(0, 1);
+    assertOwner(5, 2);
+    assertOwner(2, 3);
+    assertOwner(5, 1000);
+    assertOwner(1, 123456789L);
+  }
+
+  public void testSingleShardOwnsEverything() {
+    assertTrue(ShardSelector.ALL.isAll());
+    assertTrue(ShardSelector.ALL.owns("anything"));
+    assertTrue(ShardSelector.ALL.owns(42));
+  }
+
+  private static void assertOwner(int expected, String id) {
+    for(int i = 0; i < 7; i++) {
+      assertEquals(id + " in shard " + i, i == expected,
+          new ShardSelector(i, 7).owns(id));
+    }
+  }
+
+  private static void assertOwner(int expected, long ordinal) {
+    for(int i = 0; i < 7; i++) {
+      assertEquals("record " + ordinal + " in shard " + i, i == expected,
+          new ShardSelector(i, 7).owns(ordinal));
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import gate.FeatureMap;
+import gate.corpora.json.StringCanonicaliser.Policy;
+import junit.framework.TestCase;
+
+public class StringCanonicaliserTest extends TestCase {
+
+  private static final String LONG =
+      "<a href=\"http://twitter.com\" rel=\"nofollow\">Twitter Web Client</a>";
+
+  public void testPolicies() {
+    StringCanonicaliser keys = new StringCanonicaliser(Policy.KEYS);
+    assertSame(keys.canonicaliseKey("text"), keys.canonicaliseKey(new String("text")));
+    String value = "en";
+    assertSame(value, keys.canonicaliseValue("lang", value));
+    assertNotSame(value, keys.canonicaliseValue("lang", new String(value)));
+
+    StringCanonicaliser all = new StringCanonicaliser(Policy.ALL);
+    String first = all.canonicaliseValue("text", new String(LONG));
+    assertSame(first, all.canonicaliseValue("text", new String(LONG)));
+    assertSame(first, all.canonicaliseValue(null, new String(LONG)));
+  }
+
+  public void testShortAndFrequentFields() {
+    StringCanonicaliser canonicaliser = new StringCanonicaliser(Policy.SHORT,
+        1024, 4, Collections.singleton("source"));
+    String shortValue = canonicaliser.canonicaliseValue("text", new String("abcd"));
+    assertSame(shortValue, canonicaliser.canonicaliseValue("text", new String("abcd")));
+
+    // too long to be shared, except as the value of a frequent field
+    String longValue = new String("abcde");
+    assertSame(longValue, canonicaliser.canonicaliseValue("text", longValue));
+    assertNotSame(longValue, canonicaliser.canonicaliseValue("text", new String("abcde")));
+    String source = canonicaliser.canonicaliseValue("source", new String(LONG));
+    assertSame(source, canonicaliser.canonicaliseValue("source", new String(LONG)));
+    assertNotSame(source, canonicaliser.canonicaliseValue(null, new String(LONG)));
+  }
+
+  public void testStatistics() {
+    StringCanonicaliser canonicaliser = new StringCanonicaliser(Policy.ALL);
+    canonicaliser.canonicaliseKey("a");
+    canonicaliser.canonicaliseKey(new String("a"));
+    canonicaliser.canonicaliseValue("a", new String("a"));
+    canonicaliser.canonicaliseValue("a", "b");
+    assertEquals(2, canonicaliser.getHits());
+    assertEquals(2, canonicaliser.getMisses());
+    assertEquals(0.5, canonicaliser.getHitRatio(), 1e-9);
+    canonicaliser.resetStatistics();
+    assertEquals(0, canonicaliser.getHits());
+    assertEquals(0, canonicaliser.getMisses());
+    assertEquals(0.0, canonicaliser.getHitRatio(), 1e-9);
+  }
+
+  public void testWeakEviction() throws Exception {
+    StringCanonicaliser canonicaliser = new StringCanonicaliser(Policy.ALL);
+    String value = new String("evicted");
+    canonicaliser.canonicaliseValue(null, value);
+    WeakReference<String> probe = new WeakReference<String>(value);
+    value = null;
+    for(int i = 0; i < 50 && probe.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull("table kept an unreferenced string alive", probe.get());
+    String replacement = new String("evicted");
+    assertSame(replacement, canonicaliser.canonicaliseValue(null, replacement));
+    assertEquals(0, canonicaliser.getHits());
+  }
+
+  public void testTopLevelFrequentFields() throws Exception {
+    StringCanonicaliser canonicaliser = new StringCanonicaliser(Policy.SHORT);
+    ObjectMapper mapper = new ObjectMapper();
+    String json = "{\"text\":\"hello\",\"source\":" + mapper.writeValueAsString(LONG) + "}";
+    Object first = source(mapper, json, canonicaliser);
+    assertEquals(LONG, first);
+    assertSame(first, source(mapper, json, canonicaliser));
+  }
+
+  private static Object source(ObjectMapper mapper, String json,
+      StringCanonicaliser canonicaliser) throws Exception {
+    JSONDocument doc = new JSONDocument(mapper.readTree(json), "text", false,
+        canonicaliser);
+    FeatureMap features = doc.getAnnotations().iterator().next().getFeatures();
+    return features.get("source");
+  }
+}
@@ -0,0 +1,311 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.corpora.json;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Generates Twitter-shaped JSON objects for load tests and benchmarks.
+ *
+ * Every tweet is determined by the seed and its index alone, so any part
+ * of an arbitrarily large stream can be regenerated exactly.  The text
+ * length, the density of each kind of entity, the proportion of HTML
+ * escapes and supplementary characters, the depth of quoted tweets and the
+ * proportion of duplicates can all be set; entity indices are counted in
+ * code points of the escaped text, as Twitter does.
+ *
+ * Run with a file name and a tweet count to write a file: JSON lines for
+ * names ending ".jsonl", otherwise a JSON array, gzipped if the name ends
+ * ".gz".
+ */
+public class TweetGenerator {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final String[] WORDS = {"the", "of", "and", "to", "in",
+      "is", "for", "on", "with", "at", "by", "from", "this", "that", "new",
+      "people", "time", "day", "today", "great", "news", "world", "love",
+      "language", "text", "analysis", "corpus", "annotation", "caf\u00E9",
+      "na\u00EFve", "Z\u00FCrich",
+      "\u0395\u03BB\u03BB\u03AC\u03B4\u03B1", "\u041C\u043E\u0441\u043A\u0432\u0430",
+      "\u6771\u4EAC", "\u65E5\u672C\u8A9E", "\uD55C\uAD6D\uC5B4"};
+
+  /**
+   * Supplementary characters, some followed by a skin tone modifier so
+   * that one visible emoji is two code points.
+   */
+  private static final String[] EMOJI = {"\uD83D\uDE00", "\uD83D\uDE02",
+      "\uD83D\uDC4D\uD83C\uDFFB", "\uD83D\uDC4D\uD83C\uDFFF", "\uD83C\uDF89",
+      "\uD83D\uDD25", "\uD83D\uDCAF", "\uD835\uDC00", "\uD840\uDC0B"};
+
+  private static final String[] ESCAPES = {"&amp;", "&lt;", "&gt;"};
+
+  private final long seed;
+
+  private int meanTextLength = 100;
+
+  private int textLengthDeviation = 40;
+
+  private int maxTextLength = 280;
+
+  private double hashtagRate = 0.05;
+
+  private double mentionRate = 0.05;
+
+  private double urlRate = 0.02;
+
+  private double escapeRate = 0.01;
+
+  private double supplementaryRate = 0.03;
+
+  private int quoteDepth = 0;
+
+  private double duplicateRate = 0.0;
+
+  public TweetGenerator(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Text lengths in code points are normally distributed with the given
+   * mean and standard deviation, limited to between 1 and max.
+   */
+  public TweetGenerator textLength(int mean, int deviation, int max) {
+    this.meanTextLength = mean;
+    this.textLengthDeviation = deviation;
+    this.maxTextLength = max;
+    return this;
+  }
+
+  /**
+   * The chance of each word of the text being a hashtag, a user mention or
+   * a URL.
+   */
+  public TweetGenerator entityRates(double hashtags, double mentions, double urls) {
+    this.hashtagRate = hashtags;
+    this.mentionRate = mentions;
+    this.urlRate = urls;
+    return this;
+  }
+
+  /**
+   * The chance of each word being followed by an escaped &amp;, &lt; or
+   * &gt;.
+   */
+  public TweetGenerator escapeRate(double rate) {
+    this.escapeRate = rate;
+    return this;
+  }
+
+  /**
+   * The chance of each word being followed by an emoji or other
+   * supplementary character.
+   */
+  public TweetGenerator supplementaryRate(double rate) {
+    this.supplementaryRate = rate;
+    return this;
+  }
+
+  /**
+   * How many levels of quoted tweet each tweet carries.
+   */
+  public TweetGenerator quoteDepth(int depth) {
+    this.quoteDepth = depth;
+    return this;
+  }
+
+  /**
+   * The proportion of tweets that exactly repeat an earlier one, id and
+   * all, as replayed streams do.
+   */
+  public TweetGenerator duplicateRate(double rate) {
+    this.duplicateRate = rate;
+    return this;
+  }
+
+  private Random random(long index, int level) {
+    long mixed = (seed * 0x9E3779B97F4A7C15L) ^ (index * 0xC2B2AE3D27D4EB4FL) ^ level;
+    return new Random(mixed ^ (mixed >>> 31));
+  }
+
+  /**
+   * The tweet at the given position in the stream.
+   */
+  public ObjectNode tweet(long index) {
+    Random random = random(index, 0);
+    if(index > 0 && random.nextDouble() < duplicateRate) {
+      return tweet((long)(random.nextDouble() * index));
+    }
+    return tweet(index, quoteDepth, random);
+  }
+
+  private ObjectNode tweet(long index, int depth, Random random) {
+    long id = 1000000000000000000L + index * 1000 + depth;
+    ObjectNode tweet = MAPPER.createObjectNode();
+    tweet.put("created_at", "Thu Oct 10 " + String.format("%02d:%02d:%02d",
+        (index / 3600) % 24, (index / 60) % 60, index % 60) + " +0000 2018");
+    tweet.put("id", id);
+    tweet.put("id_str", Long.toString(id));
+    ObjectNode entities = MAPPER.createObjectNode();
+    tweet.put("text", text(random, entities));
+    tweet.put("truncated", false);
+    tweet.set("entities", entities);
+    tweet.put("source", "<a href=\"http://twitter.com\" rel=\"nofollow\">Twitter Web Client</a>");
+    tweet.set("user", user(random.nextInt(100000), random));
+    tweet.putNull("geo");
+    tweet.putNull("coordinates");
+    tweet.put("is_quote_status", depth > 0);
+    if(depth > 0) {
+      tweet.put("quoted_status_id", id - 1);
+      tweet.set("quoted_status", tweet(index, depth - 1, random(index, depth)));
+    }
+    tweet.put("retweet_count", random.nextInt(1000));
+    tweet.put("favorite_count", random.nextInt(5000));
+    tweet.put("favorited", false);
+    tweet.put("retweeted", false);
+    tweet.put("lang", random.nextInt(4) == 0 ? "und" : "en");
+    return tweet;
+  }
+
+  private static ObjectNode user(int number, Random random) {
+    ObjectNode user = MAPPER.createObjectNode();
+    user.put("id", 10000000L + number);
+    user.put("id_str", Long.toString(10000000L + number));
+    user.put("name", "User " + number);
+    user.put("screen_name", "user" + number);
+    user.put("location", random.nextBoolean() ? "Sheffield" : "");
+    user.putNull("url");
+    user.put("description", "Synthetic account number " + number);
+    user.put("verified", random.nextInt(50) == 0);
+    user.put("followers_count", random.nextInt(100000));
+    user.put("friends_count", random.nextInt(2000));
+    user.put("statuses_count", random.nextInt(50000));
+    return user;
+  }
+
+  /**
+   * Build the (escaped) text of a tweet, adding its entities as they are
+   * placed.
+   */
+  private String text(Random random, ObjectNode entities) {
+    int length = (int)Math.round(meanTextLength
+        + random.nextGaussian() * textLengthDeviation);
+    length = Math.max(1, Math.min(maxTextLength, length));
+    ArrayNode hashtags = entities.putArray("hashtags");
+    entities.putArray("symbols");
+    ArrayNode mentions = entities.putArray("user_mentions");
+    ArrayNode urls = entities.putArray("urls");
+
+    StringBuilder text = new StringBuilder();
+    int codePoints = 0;
+    while(codePoints < length) {
+      if(text.length() > 0) {
+        text.append(' ');
+        codePoints++;
+      }
+      String word = WORDS[random.nextInt(WORDS.length)];
+      double kind = random.nextDouble();
+      String token;
+      ObjectNode entity = null;
+      if(kind < hashtagRate) {
+        token = "#" + word;
+        entity = hashtags.addObject();
+        entity.put("text", word);
+      } else if(kind < hashtagRate + mentionRate) {
+        int number = random.nextInt(100000);
+        token = "@user" + number;
+        entity = mentions.addObject();
+        entity.put("screen_name", "user" + number);
+        entity.put("name", "User " + number);
+        entity.put("id", 10000000L + number);
+        entity.put("id_str", Long.toString(10000000L + number));
+      } else if(kind < hashtagRate + mentionRate + urlRate) {
+        token = "https://t.co/" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+        entity = urls.addObject();
+        entity.put("url", token);
+        entity.put("expanded_url", "https://example.com/" + word);
+        entity.put("display_url", "example.com/" + word);
+      } else {
+        token = word;
+      }
+      int tokenLength = token.codePointCount(0, token.length());
+      if(entity != null) {
+        entity.putArray("indices").add(codePoints).add(codePoints + tokenLength);
+      }
+      text.append(token);
+      codePoints += tokenLength;
+      if(random.nextDouble() < escapeRate) {
+        String escaped = ESCAPES[random.nextInt(ESCAPES.length)];
+        text.append(' ').append(escaped);
+        codePoints += 1 + escaped.length();
+      }
+      if(random.nextDouble() < supplementaryRate) {
+        String emoji = EMOJI[random.nextInt(EMOJI.length)];
+        text.append(emoji);
+        codePoints += emoji.codePointCount(0, emoji.length());
+      }
+    }
+    return text.toString();
+  }
+
+  /**
+   * Write the first count tweets to a stream, as JSON lines or as one JSON
+   * array, optionally gzipped.  The stream is not closed.
+   */
+  public void write(OutputStream out, long count, boolean asArray, boolean gzip)
+    throws IOException {
+    GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(out, 65536) : null;
+    OutputStream target = new BufferedOutputStream(gzip ? gzipOut : out, 65536);
+    JsonGenerator json = MAPPER.getFactory().createGenerator(target, JsonEncoding.UTF8);
+    json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    json.setRootValueSeparator(new SerializedString("\n"));
+    if(asArray) json.writeStartArray();
+    for(long i = 0; i < count; i++) {
+      MAPPER.writeTree(json, tweet(i));
+    }
+    if(asArray) json.writeEndArray();
+    if(!asArray) json.writeRaw('\n');
+    json.close();
+    target.flush();
+    if(gzipOut != null) gzipOut.finish();
+    out.flush();
+  }
+
+  public void write(File file, long count) throws IOException {
+    String name = file.getName();
+    boolean gzip = name.endsWith(".gz");
+    if(gzip) name = name.substring(0, name.length() - 3);
+    try(OutputStream out = new FileOutputStream(file)) {
+      write(out, count, !name.endsWith(".jsonl"), gzip);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if(args.length < 2) {
+      System.err.println("Usage: TweetGenerator <file> <count> [seed]");
+      System.exit(1);
+    }
+    long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+    new TweetGenerator(seed).write(new File(args[0]), Long.parseLong(args[1]));
+  }
+}
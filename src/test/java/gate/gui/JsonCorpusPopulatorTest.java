@@ -0,0 +1,198 @@
+/*
+ *  Copyright (c) 1995-2018, The University of Sheffield. See the file
+ *  COPYRIGHT.txt in the software or at http://gate.ac.uk/gate/COPYRIGHT.txt
+ *
+ *  This file is part of GATE (see http://gate.ac.uk/), and is free
+ *  software, licenced under the GNU Library General Public License,
+ *  Version 3, June 2007 (in the distribution as file licence.html,
+ *  and also available at http://gate.ac.uk/gate/licence.html).
+ */
+package gate.gui;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import gate.Corpus;
+import gate.Document;
+import gate.Factory;
+import gate.corpora.CorpusImpl;
+import gate.corpora.json.ShardSelector;
+import gate.corpora.json.TweetGenerator;
+import gate.test.GATEPluginTestCase;
+
+public class JsonCorpusPopulatorTest extends GATEPluginTestCase {
+
+  private static final int TWEETS = 60;
+
+  public void testShardsByID() throws Exception {
+    checkShards(true, "/id_str");
+  }
+
+  public void testShardsByPosition() throws Exception {
+    checkShards(false, null);
+  }
+
+  private void checkShards(boolean asArray, String idPath) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new TweetGenerator(7).write(out, TWEETS, asArray, false);
+    byte[] json = out.toByteArray();
+
+    Set<String> seen = new HashSet<String>();
+    int total = 0;
+    for(int shard = 0; shard < 3; shard++) {
+      Set<String> texts = texts(json, idPath, new ShardSelector(shard, 3));
+      assertTrue("shard " + shard + " is empty", texts.size() > 0);
+      total += texts.size();
+      seen.addAll(texts);
+      // the same shard again gets exactly the same records
+      assertEquals(texts, texts(json, idPath, new ShardSelector(shard, 3)));
+    }
+    assertEquals(TWEETS, total);
+    assertEquals(TWEETS, seen.size());
+    assertEquals(seen, texts(json, idPath, ShardSelector.ALL));
+  }
+
+  private static Set<String> texts(byte[] json, String idPath,
+      ShardSelector shard) throws Exception {
+    Corpus corpus = Factory.newCorpus("shard");
+    try {
+      new JsonCorpusPopulator().populate(corpus, new ByteArrayInputStream(json),
+          "text/json", idPath, shard);
+      Set<String> texts = new HashSet<String>();
+      for(Document doc : corpus) {
+        texts.add(doc.getContent().toString());
+      }
+      return texts;
+    } finally {
+      delete(corpus);
+    }
+  }
+
+  private static void delete(Corpus corpus) {
+    for(Document doc : new ArrayList<Document>(corpus)) {
+      Factory.deleteResource(doc);
+    }
+    Factory.deleteResource(corpus);
+  }
+
+  public void testFiles() throws Exception {
+    File dir = Files.createTempDirectory("populate").toFile();
+    try {
+      File hours = new File(dir, "hours");
+      hours.mkdir();
+      TweetGenerator generator = new TweetGenerator(11);
+      for(int hour = 0; hour < 4; hour++) {
+        File file = new File(hours, "0" + hour + (hour % 2 == 0 ? ".json.gz" : ".json"));
+        try(OutputStream out = new FileOutputStream(file)) {
+          generator.write(out, 5 + hour, hour == 1, hour % 2 == 0);
+        }
+      }
+      try(OutputStream out = new FileOutputStream(new File(hours, "04.json"))) {
+        out.write("{\"text\":\"one\"}\n{\"text\":".getBytes(StandardCharsets.UTF_8));
+      }
+      new File(hours, "notes.txt").createNewFile();
+
+      List<File> files = JsonCorpusPopulator.listFiles(hours.getPath() + "/*.json*");
+      assertEquals(5, files.size());
+      assertEquals("00.json.gz", files.get(0).getName());
+      assertEquals("04.json", files.get(4).getName());
+      assertEquals(6, JsonCorpusPopulator.listFiles(dir.getPath()).size());
+      assertEquals(files, JsonCorpusPopulator.listFiles(dir.getPath() + "/**.json*"));
+
+      // the same documents in the same order however many threads
+      List<String> expected = null;
+      for(int threads : new int[] {1, 3}) {
+        Corpus corpus = Factory.newCorpus("files");
+        try {
+          List<JsonCorpusPopulator.FileReport> reports = new JsonCorpusPopulator()
+              .populate(corpus, files, "text/json", null, ShardSelector.ALL, threads);
+          assertEquals(5, reports.size());
+          for(int hour = 0; hour < 4; hour++) {
+            assertNull(reports.get(hour).getFailure());
+            assertEquals(5 + hour, reports.get(hour).getDocuments());
+            assertTrue(reports.get(hour).getBytes() > 0);
+          }
+          assertNotNull(reports.get(4).getFailure());
+          assertEquals(1, reports.get(4).getDocuments());
+
+          List<String> texts = new ArrayList<String>();
+          for(Document doc : corpus) {
+            texts.add(doc.getContent().toString());
+          }
+          assertEquals(5 + 6 + 7 + 8 + 1, texts.size());
+          if(expected == null) expected = texts;
+          assertEquals(expected, texts);
+        } finally {
+          delete(corpus);
+        }
+      }
+    } finally {
+      for(File file : Files.walk(dir.toPath()).sorted(Comparator.reverseOrder())
+          .map(Path::toFile).toArray(File[]::new)) {
+        file.delete();
+      }
+    }
+  }
+
+  public void testFailedAdd() throws Exception {
+    File dir = Files.createTempDirectory("populate").toFile();
+    try {
+      List<File> files = new ArrayList<File>();
+      for(int i = 0; i < 3; i++) {
+        File file = new File(dir, i + ".json");
+        try(OutputStream out = new FileOutputStream(file)) {
+          new TweetGenerator(i).write(out, 4, false, false);
+        }
+        files.add(file);
+      }
+      // a corpus that refuses the second document it is offered
+      Corpus corpus = new CorpusImpl() {
+        private static final long serialVersionUID = 1L;
+
+        private int offered = 0;
+
+        @Override
+        public boolean add(Document doc) {
+          if(++offered == 2) throw new IllegalStateException("refused");
+          return super.add(doc);
+        }
+      };
+      try {
+        List<JsonCorpusPopulator.FileReport> reports = new JsonCorpusPopulator()
+            .populate(corpus, files, "text/json", null, ShardSelector.ALL, 2);
+        assertEquals(3, reports.get(0).getDocuments());
+        assertEquals(1, reports.get(0).getFailedRecords());
+        assertEquals(4, reports.get(1).getDocuments());
+        assertEquals(4, reports.get(2).getDocuments());
+        assertEquals(11, corpus.size());
+      } finally {
+        delete(corpus);
+      }
+    } finally {
+      for(File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  public void testBadShard() {
+    try {
+      new ShardSelector(3, 3);
+      fail("shard 3 of 3 accepted");
+    } catch(IllegalArgumentException e) {
+      // expected
+    }
+  }
+}